@@ -0,0 +1,167 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cloudera.cdh.test.common.Component;
+import com.cloudera.cdh.test.common.SQLTextQueryable;
+
+/**
+ * Executes the queries of a cluster reader component asynchronously with the PPD setting given per
+ * query, so that the reference and the PPD runs of many queries can be in flight at the same time.
+ *
+ * The PPD setting of the cluster clients is the state of the client, and the clients are not known
+ * to be usable from several threads at once. The dispatcher therefore keeps a pool of dedicated
+ * instances for each setting, created on demand with the constructor without arguments and set
+ * once; a query borrows an idle instance for its execution. As a query only runs while holding a
+ * slot, at most as many instances are created per setting as the component has slots. The
+ * instances are closed by {@link #closeAll()} if they are {@link AutoCloseable}.
+ *
+ * The number of queries in flight is limited by the slots of {@link ComponentThrottle}, which are
+ * shared with the synchronous queries: submitting waits while all slots of the component are taken.
+ * As the test cases run on a single thread by default, a component has
+ * {@value #DEFAULT_IN_FLIGHT} slots in async mode unless its limit is set explicitly.
+ */
+class AsyncQueryDispatcher {
+  /**
+   * The rows returned by a query and its execution time, not including the time spent waiting for a
+   * slot.
+   */
+  static final class Result {
+    final List<List<Object>> rows;
+    final long nanos;
+
+    Result(List<List<Object>> rows, long nanos) {
+      this.rows = rows;
+      this.nanos = nanos;
+    }
+  }
+
+  static final int DEFAULT_IN_FLIGHT = 8;
+
+  private static final ConcurrentMap<Component, AsyncQueryDispatcher> dispatchers = new ConcurrentHashMap<>();
+  // Threads are only busy while holding a slot, so their number is bounded by the limits
+  private static final ExecutorService executor = Executors.newCachedThreadPool(new DaemonThreadFactory());
+
+  private final Component component;
+  private final Class<? extends SQLTextQueryable> readerClass;
+  private final Queue<SQLTextQueryable> idleReferenceReaders = new ConcurrentLinkedQueue<>();
+  private final Queue<SQLTextQueryable> idlePushdownReaders = new ConcurrentLinkedQueue<>();
+  private final Queue<SQLTextQueryable> createdReaders = new ConcurrentLinkedQueue<>();
+
+  private AsyncQueryDispatcher(SQLTextQueryable reader) {
+    component = reader.getComponent();
+    readerClass = reader.getClass();
+  }
+
+  /**
+   * Returns the dispatcher of the component of the cluster reader.
+   */
+  static AsyncQueryDispatcher forReader(SQLTextQueryable reader) {
+    if (reader instanceof LocalParquetClient) {
+      throw new IllegalArgumentException("The queries of the local reader are validated synchronously");
+    }
+    return dispatchers.computeIfAbsent(reader.getComponent(), component -> new AsyncQueryDispatcher(reader));
+  }
+
+  /**
+   * Closes the dedicated readers of all the dispatchers and forgets the dispatchers.
+   */
+  static void closeAll() throws Exception {
+    Exception failure = null;
+    for (AsyncQueryDispatcher dispatcher : dispatchers.values()) {
+      for (SQLTextQueryable reader : dispatcher.createdReaders) {
+        if (!(reader instanceof AutoCloseable)) {
+          continue;
+        }
+        try {
+          ((AutoCloseable) reader).close();
+        } catch (Exception e) {
+          if (failure == null) {
+            failure = e;
+          } else {
+            failure.addSuppressed(e);
+          }
+        }
+      }
+    }
+    dispatchers.clear();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Returns an idle reader with the PPD setting or a new one if all of them are busy.
+   */
+  private SQLTextQueryable borrow(boolean pushdown) {
+    SQLTextQueryable reader = (pushdown ? idlePushdownReaders : idleReferenceReaders).poll();
+    if (reader != null) {
+      return reader;
+    }
+    try {
+      reader = readerClass.getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalArgumentException(
+          "Can not create a dedicated " + readerClass.getSimpleName() + " for PPD " + pushdown, e);
+    }
+    reader.setPredicatePushdown(pushdown);
+    createdReaders.add(reader);
+    return reader;
+  }
+
+  private void giveBack(SQLTextQueryable reader, boolean pushdown) {
+    (pushdown ? idlePushdownReaders : idleReferenceReaders).add(reader);
+  }
+
+  /**
+   * Submits the query, waiting while the component has no free slot.
+   */
+  CompletableFuture<Result> submit(String query, boolean pushdown) throws InterruptedException {
+    ComponentThrottle.acquire(component);
+    try {
+      return CompletableFuture.supplyAsync(() -> {
+        try {
+          return execute(query, pushdown);
+        } catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      }, executor).whenComplete((result, e) -> ComponentThrottle.release(component));
+    } catch (RuntimeException e) {
+      ComponentThrottle.release(component);
+      throw e;
+    }
+  }
+
+  private Result execute(String query, boolean pushdown) throws Exception {
+    SQLTextQueryable reader = borrow(pushdown);
+    try {
+      long start = System.nanoTime();
+      List<List<Object>> rows = reader.executeTextQueryReturningObjects(query);
+      return new Result(rows, System.nanoTime() - start);
+    } finally {
+      giveBack(reader, pushdown);
+    }
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "async-query-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
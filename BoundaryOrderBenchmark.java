@@ -0,0 +1,161 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import static java.util.Arrays.asList;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.filter2.compat.FilterCompat;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnPath;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.internal.filter2.columnindex.ColumnIndexFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.cloudera.cdh.test.common.Component;
+
+/**
+ * Measures how the latency of column index filtering scales with the number of pages for the
+ * layouts of {@link DataGenerator.Layout}.
+ *
+ * The fixture is a single file of {@link #rows} rows containing the ID and the benchmarked column,
+ * so the page count of the column is about {@code rows / pageRowCountLimit}. The ASCENDING and
+ * DESCENDING layouts get a sorted boundary order, which allows binary searching the pages, while
+ * the CLUSTERED and RANDOM layouts are UNORDERED and every page has to be checked.
+ * {@link #columnIndexLookup(Blackhole)} only calculates the row ranges from the already loaded
+ * indexes, {@link #filteredScan(Blackhole)} executes the whole query through
+ * {@link LocalParquetClient}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BoundaryOrderBenchmark {
+  private static final String TABLE = "boundary_order_benchmark";
+
+  @Param({ "ASCENDING", "DESCENDING", "CLUSTERED", "RANDOM" })
+  public String layout;
+
+  @Param({ "10000", "1000", "100", "10" })
+  public int pageRowCountLimit;
+
+  @Param({ "INT64", "UTF8" })
+  public String column;
+
+  @Param({ "=", "<" })
+  public String operator;
+
+  @Param({ "1000000" })
+  public long rows;
+
+  private java.nio.file.Path dir;
+  private LocalParquetClient client;
+  private List<String> queries;
+  private List<FilterCompat.Filter> filters;
+  private List<BlockMetaData> blocks;
+  private List<FileColumnIndexStore> indexStores;
+  private Set<ColumnPath> paths;
+
+  @Setup(Level.Trial)
+  public void writeFixture() throws Exception {
+    ColumnHelper helper = ColumnHelper.valueOf(column);
+    List<ColumnHelper> columns = Collections.singletonList(helper);
+    dir = Files.createTempDirectory(TABLE);
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Path location = fs.makeQualified(new Path(dir.toString()));
+    Path file = new Path(location, "0.parquet");
+    Configuration conf = new Configuration();
+    conf.setInt("parquet.page.row.count.limit", pageRowCountLimit);
+    DataGenerator generator =
+        DataGenerator.scaled(columns, 1, rows).withLayout(DataGenerator.Layout.valueOf(layout));
+    ColumnIndexFiltering.writeColumnarParquetFile(file, conf, ColumnIndexFiltering.createParquetSchema(columns),
+        generator, 0, CompressionCodecName.UNCOMPRESSED);
+
+    // The component is only used for deciding the supported types, which is not relevant here
+    client = new LocalParquetClient(Component.HIVE);
+    client.executeSqlUpdate(ColumnIndexFiltering.createTableStatement(TABLE, columns, location));
+
+    String columnName = helper.getColumnName();
+    queries = new ArrayList<>();
+    filters = new ArrayList<>();
+    for (Object refValue : helper.getValues().values) {
+      queries.add(String.format("SELECT id, %s FROM %s WHERE %s %s %s ORDER BY id", columnName, TABLE, columnName,
+          operator, helper.valueToSqlLiteral(refValue)));
+      filters.add(FilterCompat.get(FilterExpression.comparison(helper, operator, refValue).toFilterPredicate()));
+    }
+
+    // Loading the indexes up front, so that the lookup benchmark does not include any I/O
+    paths = new HashSet<>(asList(ColumnPath.get("id"), ColumnPath.get(columnName)));
+    indexStores = new ArrayList<>();
+    try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(file, conf))) {
+      blocks = reader.getFooter().getBlocks();
+      for (BlockMetaData block : blocks) {
+        FileColumnIndexStore store = new FileColumnIndexStore(reader, block);
+        for (ColumnPath path : paths) {
+          store.getColumnIndex(path);
+          store.getOffsetIndex(path);
+        }
+        indexStores.add(store);
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteFixture() throws Exception {
+    client.executeSqlUpdate("DROP TABLE " + TABLE);
+    FileSystem.getLocal(new Configuration()).delete(new Path(dir.toString()), true);
+  }
+
+  @Benchmark
+  public void columnIndexLookup(Blackhole blackhole) {
+    for (FilterCompat.Filter filter : filters) {
+      for (int i = 0, n = blocks.size(); i < n; ++i) {
+        blackhole.consume(
+            ColumnIndexFilter.calculateRowRanges(filter, indexStores.get(i), paths, blocks.get(i).getRowCount()));
+      }
+    }
+  }
+
+  @Benchmark
+  public void filteredScan(Blackhole blackhole) {
+    for (String query : queries) {
+      blackhole.consume(client.executeQuery(query, true, new PageIoStats()));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder()
+        .include(BoundaryOrderBenchmark.class.getSimpleName())
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -4,19 +4,22 @@ import static com.cloudera.cdh.test.common.Component.HIVE;
 import static java.util.Arrays.asList;
 
 import java.math.BigDecimal;
-import java.util.Arrays;
+import java.math.BigInteger;
 import java.util.List;
 
 import org.apache.avro.Conversion;
 import org.apache.avro.data.TimeConversions;
 import org.apache.parquet.example.data.simple.NanoTime;
 import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
 import org.apache.parquet.schema.OriginalType;
 import org.apache.parquet.schema.PrimitiveType;
 import org.apache.parquet.schema.Type;
 import org.apache.parquet.schema.Types;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
 import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDate;
 import org.joda.time.LocalTime;
 import org.joda.time.format.DateTimeFormat;
@@ -50,6 +53,21 @@ enum ColumnHelper {
     public TestValues<?> getValues() {
       return new TestValues<Boolean>(false, false, true, true);
     }
+
+    @Override
+    public long valueToPrimitive(Object value) {
+      return (Boolean) value ? 1 : 0;
+    }
+
+    @Override
+    public PrimitiveEncoder createPrimitiveEncoder() {
+      return (consumer, value) -> consumer.addBoolean(value != 0);
+    }
+
+    @Override
+    public Object stringToValue(String value) {
+      return Boolean.valueOf(value);
+    }
   },
   INT32 {
     @Override
@@ -67,6 +85,21 @@ enum ColumnHelper {
     public TestValues<?> getValues() {
       return new TestValues<Integer>(Integer.MIN_VALUE, -42, 42, Integer.MAX_VALUE);
     }
+
+    @Override
+    public long valueToPrimitive(Object value) {
+      return (Integer) value;
+    }
+
+    @Override
+    public PrimitiveEncoder createPrimitiveEncoder() {
+      return (consumer, value) -> consumer.addInteger((int) value);
+    }
+
+    @Override
+    public Object stringToValue(String value) {
+      return Integer.valueOf(value);
+    }
   },
   INT64 {
     @Override
@@ -85,6 +118,21 @@ enum ColumnHelper {
       // Hive can't handle the two most extreme Long values.
       return new TestValues<Long>(Long.MIN_VALUE + 1, -42L, 42L, Long.MAX_VALUE - 1);
     }
+
+    @Override
+    public long valueToPrimitive(Object value) {
+      return (Long) value;
+    }
+
+    @Override
+    public PrimitiveEncoder createPrimitiveEncoder() {
+      return (consumer, value) -> consumer.addLong(value);
+    }
+
+    @Override
+    public Object stringToValue(String value) {
+      return Long.valueOf(value);
+    }
   },
   // INT96 is the de-facto standard timestamp for Impala, Hive and Spark however, not specified in Parquet
   INT96 {
@@ -102,8 +150,8 @@ enum ColumnHelper {
     @Override
     public Object valueToFileFormatValue(Object value) {
       DateTime dateTime = (DateTime) value;
-      return new NanoTime((int) DateTimeUtils.toJulianDayNumber(dateTime.getMillis()),
-        dateTime.getMillisOfDay() * 1000_000L);
+      long millis = dateTime.getMillis();
+      return new NanoTime(toJulianDay(millis), toNanosOfDay(millis, dateTime.getZone().getOffset(millis)));
     }
 
     @Override
@@ -120,6 +168,37 @@ enum ColumnHelper {
           new DateTime(1985, 10, 26, 1, 22, 0, 0),
           new DateTime(2015, 10, 21, 16, 29, 0, 0));
     }
+
+    @Override
+    public long valueToPrimitive(Object value) {
+      return ((DateTime) value).getMillis();
+    }
+
+    // The time of day is taken in the default time zone like for the DateTime values
+    @Override
+    public PrimitiveEncoder createPrimitiveEncoder() {
+      final byte[] buffer = new byte[12];
+      final Binary binary = Binary.fromReusedByteArray(buffer);
+      final DateTimeZone zone = DateTimeZone.getDefault();
+      return (consumer, value) -> {
+        writeInt96(value, zone.getOffset(value), buffer);
+        consumer.addBinary(binary);
+      };
+    }
+
+    @Override
+    public Object fileFormatValueToValue(Object value) {
+      NanoTime nanoTime = (NanoTime) value;
+      long dayMillis =
+          (nanoTime.getJulianDay() - DateTimeUtils.toJulianDayNumber(0)) * DateTimeConstants.MILLIS_PER_DAY;
+      return new LocalDate(dayMillis, DateTimeZone.UTC)
+          .toDateTime(LocalTime.fromMillisOfDay(nanoTime.getTimeOfDayNanos() / 1000_000L));
+    }
+
+    @Override
+    public Object stringToValue(String value) {
+      return DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss.SSS").parseDateTime(value);
+    }
   },
   FLOAT {
     @Override
@@ -137,6 +216,21 @@ enum ColumnHelper {
     public TestValues<?> getValues() {
       return new TestValues<Float>(-Float.MAX_VALUE, -Float.MIN_VALUE, Float.MIN_VALUE, Float.MAX_VALUE);
     }
+
+    @Override
+    public long valueToPrimitive(Object value) {
+      return Float.floatToRawIntBits((Float) value);
+    }
+
+    @Override
+    public PrimitiveEncoder createPrimitiveEncoder() {
+      return (consumer, value) -> consumer.addFloat(Float.intBitsToFloat((int) value));
+    }
+
+    @Override
+    public Object stringToValue(String value) {
+      return Float.valueOf(value);
+    }
   },
   DOUBLE {
     @Override
@@ -154,6 +248,21 @@ enum ColumnHelper {
     public TestValues<?> getValues() {
       return new TestValues<Double>(-Double.MAX_VALUE, -Double.MIN_VALUE, Double.MIN_VALUE, Double.MAX_VALUE);
     }
+
+    @Override
+    public long valueToPrimitive(Object value) {
+      return Double.doubleToRawLongBits((Double) value);
+    }
+
+    @Override
+    public PrimitiveEncoder createPrimitiveEncoder() {
+      return (consumer, value) -> consumer.addDouble(Double.longBitsToDouble(value));
+    }
+
+    @Override
+    public Object stringToValue(String value) {
+      return Double.valueOf(value);
+    }
   },
   FIXED {
     @Override
@@ -181,6 +290,21 @@ enum ColumnHelper {
     public TestValues<?> getValues() {
       return new TestValues<String>("BMP", "GIF", "JPG", "PNG");
     }
+
+    @Override
+    public long valueToPrimitive(Object value) {
+      return referenceIndexOf(value);
+    }
+
+    @Override
+    public PrimitiveEncoder createPrimitiveEncoder() {
+      return createReferenceEncoder();
+    }
+
+    @Override
+    public Object fileFormatValueToValue(Object value) {
+      return ((Binary) value).toStringUsingUTF8();
+    }
   },
   BINARY {
     @Override
@@ -203,6 +327,21 @@ enum ColumnHelper {
     public TestValues<?> getValues() {
       return new TestValues<String>("Alfa", "Bravo", "Charlie", "Delta");
     }
+
+    @Override
+    public long valueToPrimitive(Object value) {
+      return referenceIndexOf(value);
+    }
+
+    @Override
+    public PrimitiveEncoder createPrimitiveEncoder() {
+      return createReferenceEncoder();
+    }
+
+    @Override
+    public Object fileFormatValueToValue(Object value) {
+      return ((Binary) value).toStringUsingUTF8();
+    }
   },
   UTF8 {
     @Override
@@ -226,6 +365,21 @@ enum ColumnHelper {
     public TestValues<?> getValues() {
       return new TestValues<String>("Alfa", "Bravo", "Charlie", "Delta");
     }
+
+    @Override
+    public long valueToPrimitive(Object value) {
+      return referenceIndexOf(value);
+    }
+
+    @Override
+    public PrimitiveEncoder createPrimitiveEncoder() {
+      return createReferenceEncoder();
+    }
+
+    @Override
+    public Object fileFormatValueToValue(Object value) {
+      return ((Binary) value).toStringUsingUTF8();
+    }
   },
   DECIMAL_IN_INT32 {
     private int precision = 9;
@@ -263,6 +417,26 @@ enum ColumnHelper {
           new BigDecimal("42"),
           new BigDecimal("1234567.89"));
     }
+
+    @Override
+    public long valueToPrimitive(Object value) {
+      return toUnscaledLong((BigDecimal) value, scale);
+    }
+
+    @Override
+    public PrimitiveEncoder createPrimitiveEncoder() {
+      return (consumer, value) -> consumer.addInteger((int) value);
+    }
+
+    @Override
+    public Object stringToValue(String value) {
+      return new BigDecimal(value);
+    }
+
+    @Override
+    public Object fileFormatValueToValue(Object value) {
+      return BigDecimal.valueOf((Integer) value, scale);
+    }
   },
   DECIMAL_IN_INT64 {
     private int precision = 18;
@@ -300,16 +474,31 @@ enum ColumnHelper {
           new BigDecimal("42"),
           new BigDecimal("12345678912345.6789"));
     }
+
+    @Override
+    public long valueToPrimitive(Object value) {
+      return toUnscaledLong((BigDecimal) value, scale);
+    }
+
+    @Override
+    public PrimitiveEncoder createPrimitiveEncoder() {
+      return (consumer, value) -> consumer.addLong(value);
+    }
+
+    @Override
+    public Object stringToValue(String value) {
+      return new BigDecimal(value);
+    }
+
+    @Override
+    public Object fileFormatValueToValue(Object value) {
+      return BigDecimal.valueOf((Long) value, scale);
+    }
   },
   DECIMAL_IN_FIXED {
     private int precision = 18;
     private int scale = 6;
 
-    private final byte[] minValue = new byte[8];
-    {
-      Arrays.fill(minValue, (byte) 0xFF);
-    }
-
     @Override
     public Type getSchema() {
       return Types.optional(PrimitiveType.PrimitiveTypeName.FIXED_LEN_BYTE_ARRAY)
@@ -327,18 +516,9 @@ enum ColumnHelper {
 
     @Override
     public Object valueToFileFormatValue(Object value) {
-      BigDecimal decimal = (BigDecimal) value;
-      byte[] array = decimal.setScale(scale).unscaledValue().toByteArray();
-      if (array.length < 8) {
-        byte[] dest = new byte[8];
-        System.arraycopy(array, 0, dest, dest.length - array.length, array.length);
-
-        // As we are storing the value in two's complement we have to fill the first bytes with FF
-        if (decimal.signum() < 0)
-          System.arraycopy(minValue, 0, dest, 0, dest.length - array.length);
-
-        array = dest;
-      }
+      // The two's complement of the unscaled value, sign extended to 8 bytes
+      byte[] array = new byte[8];
+      writeBigEndian(toUnscaledLong((BigDecimal) value, scale), array);
       return Binary.fromConstantByteArray(array);
     }
 
@@ -350,7 +530,34 @@ enum ColumnHelper {
           new BigDecimal("42"),
           new BigDecimal("123456789123.456789"));
     }
+
+    @Override
+    public long valueToPrimitive(Object value) {
+      return toUnscaledLong((BigDecimal) value, scale);
+    }
+
+    @Override
+    public PrimitiveEncoder createPrimitiveEncoder() {
+      final byte[] buffer = new byte[8];
+      final Binary binary = Binary.fromReusedByteArray(buffer);
+      return (consumer, value) -> {
+        writeBigEndian(value, buffer);
+        consumer.addBinary(binary);
+      };
+    }
+
+    @Override
+    public Object stringToValue(String value) {
+      return new BigDecimal(value);
+    }
+
+    @Override
+    public Object fileFormatValueToValue(Object value) {
+      return new BigDecimal(new BigInteger(((Binary) value).getBytes()), scale);
+    }
   },
+  // parquet-mr only truncates the column index bounds of unannotated and string-like binaries, so
+  // the values of this column are never truncated, whatever the truncate length.
   DECIMAL_IN_BINARY {
     private int precision = 38;
     private int scale = 12;
@@ -383,8 +590,127 @@ enum ColumnHelper {
           new BigDecimal("42"),
           new BigDecimal("12345678901234567890123456.789012345678"));
     }
+
+    // The unscaled reference values do not fit in a long
+    @Override
+    public long valueToPrimitive(Object value) {
+      return referenceIndexOf(value);
+    }
+
+    @Override
+    public PrimitiveEncoder createPrimitiveEncoder() {
+      return createReferenceEncoder();
+    }
+
+    @Override
+    public Object stringToValue(String value) {
+      return new BigDecimal(value);
+    }
+
+    @Override
+    public Object fileFormatValueToValue(Object value) {
+      return new BigDecimal(new BigInteger(((Binary) value).getBytes()), scale);
+    }
+  },
+  // Long values sharing a prefix longer than the default truncate length of the column index
+  // min/max values, so truncation makes the bounds of the pages equal.
+  URL {
+    @Override
+    public Type getSchema() {
+      return Types.optional(PrimitiveType.PrimitiveTypeName.BINARY)
+        .as(OriginalType.UTF8)
+        .named(getColumnName());
+    }
+
+    @Override
+    public String getSqlType() {
+      return "STRING";
+    }
+
+    @Override
+    public Object valueToFileFormatValue(Object value) {
+      return Binary.fromString((String) value);
+    }
+
+    @Override
+    public TestValues<?> getValues() {
+      String prefix = "https://data.example.com/warehouse/tables/column_index_filtering/partitions/2019/";
+      return new TestValues<String>(
+          prefix + "alfa/part-00000.parquet",
+          prefix + "bravo/part-00001.parquet",
+          prefix + "charlie/part-00002.parquet",
+          prefix + "delta/part-00003.parquet");
+    }
+
+    @Override
+    public long valueToPrimitive(Object value) {
+      return referenceIndexOf(value);
+    }
+
+    @Override
+    public PrimitiveEncoder createPrimitiveEncoder() {
+      return createReferenceEncoder();
+    }
+
+    @Override
+    public Object fileFormatValueToValue(Object value) {
+      return ((Binary) value).toStringUsingUTF8();
+    }
+  },
+  // Long values differing in their first bytes, so truncation keeps the bounds distinguishable.
+  UUID_KEY {
+    @Override
+    public Type getSchema() {
+      return Types.optional(PrimitiveType.PrimitiveTypeName.BINARY)
+        .named(getColumnName());
+    }
+
+    @Override
+    public String getSqlType() {
+      return "STRING";
+    }
+
+    @Override
+    public Object valueToFileFormatValue(Object value) {
+      return Binary.fromString((String) value);
+    }
+
+    @Override
+    public TestValues<?> getValues() {
+      String suffix = "/customer/orders/line-items/shipments/tracking-events/2019-11-05T06:00:00.000Z";
+      return new TestValues<String>(
+          "0b7d5b2e-6d4f-4f2a-9a3c-1c2d3e4f5a6b" + suffix,
+          "5d1e8c3a-2b4f-4e6d-8a9b-7c6d5e4f3a2b" + suffix,
+          "a0f3c9e1-7b2d-4c5e-9f8a-3b4c5d6e7f8a" + suffix,
+          "f47ac10b-58cc-4372-a567-0e02b2c3d479" + suffix);
+    }
+
+    @Override
+    public long valueToPrimitive(Object value) {
+      return referenceIndexOf(value);
+    }
+
+    @Override
+    public PrimitiveEncoder createPrimitiveEncoder() {
+      return createReferenceEncoder();
+    }
+
+    @Override
+    public Object fileFormatValueToValue(Object value) {
+      return ((Binary) value).toStringUsingUTF8();
+    }
   };
 
+  private static final long JULIAN_DAY_OF_EPOCH = 2440588;
+
+  /**
+   * Appends a value given in its primitive form (see {@link #valueToPrimitive(Object)}) to the
+   * current field of a {@link RecordConsumer}.
+   */
+  interface PrimitiveEncoder {
+    void append(RecordConsumer consumer, long value);
+  }
+
   static class TestValues<T> {
     public TestValues(T a, T b, T c, T d) {
       values = asList(a, b, c, d);
@@ -404,6 +730,20 @@ enum ColumnHelper {
     return value;
   }
 
+  /**
+   * The inverse of {@link #valueToFileFormatValue(Object)}.
+   */
+  public Object fileFormatValueToValue(Object value) {
+    return value;
+  }
+
+  /**
+   * The inverse of {@link #nonNullValueToString(Object)}; used for parsing SQL literals.
+   */
+  public Object stringToValue(String value) {
+    return value;
+  }
+
   public String nonNullValueToString(Object value) {
     return value.toString();
   }
@@ -419,6 +759,79 @@ enum ColumnHelper {
     return String.format("CAST('%s' AS %s)", valueAsString, getSqlType());
   }
 
+  /**
+   * Returns the primitive form of the value: the value itself for integers, 0 or 1 for booleans,
+   * the raw bits for floating point numbers, the unscaled value for decimals and the milliseconds
+   * since the epoch for timestamps. The values of string columns and of DECIMAL_IN_BINARY have no
+   * 64-bit form, so their primitive form is the index among the reference values.
+   */
+  abstract public long valueToPrimitive(Object value);
+
+  /**
+   * Returns an encoder writing values given in their primitive form without allocating anything
+   * per value: fixed and binary values are written into a buffer owned by the encoder, so an
+   * encoder must not be shared between threads.
+   */
+  abstract public PrimitiveEncoder createPrimitiveEncoder();
+
+  int referenceIndexOf(Object value) {
+    int index = getValues().values.indexOf(value);
+    if (index < 0) {
+      throw new IllegalArgumentException(value + " is not a reference value of " + name());
+    }
+    return index;
+  }
+
+  /**
+   * Returns an encoder of reference indexes, which converts the reference values only once.
+   */
+  PrimitiveEncoder createReferenceEncoder() {
+    List<?> values = getValues().values;
+    final Binary[] binaries = new Binary[values.size()];
+    for (int i = 0; i < binaries.length; ++i) {
+      binaries[i] = (Binary) valueToFileFormatValue(values.get(i));
+    }
+    return (consumer, index) -> consumer.addBinary(binaries[(int) index]);
+  }
+
+  static long toUnscaledLong(BigDecimal value, int scale) {
+    return value.setScale(scale).unscaledValue().longValueExact();
+  }
+
+  static void writeBigEndian(long value, byte[] buffer) {
+    for (int i = buffer.length - 1; i >= 0; --i) {
+      buffer[i] = (byte) value;
+      value >>= 8;
+    }
+  }
+
+  /**
+   * The julian day of the UTC date of the instant, the same as
+   * {@link DateTimeUtils#toJulianDayNumber(long)}.
+   */
+  static int toJulianDay(long epochMillis) {
+    return (int) (Math.floorDiv(epochMillis, DateTimeConstants.MILLIS_PER_DAY) + JULIAN_DAY_OF_EPOCH);
+  }
+
+  static long toNanosOfDay(long epochMillis, int zoneOffsetMillis) {
+    return Math.floorMod(epochMillis + zoneOffsetMillis, (long) DateTimeConstants.MILLIS_PER_DAY) * 1000_000L;
+  }
+
+  /**
+   * Writes the INT96 timestamp in the layout of {@link NanoTime#toBinary()}: the nanoseconds of the
+   * day followed by the julian day, both little-endian.
+   */
+  static void writeInt96(long epochMillis, int zoneOffsetMillis, byte[] buffer) {
+    long nanos = toNanosOfDay(epochMillis, zoneOffsetMillis);
+    for (int i = 0; i < 8; ++i) {
+      buffer[i] = (byte) (nanos >>> (i * 8));
+    }
+    int julianDay = toJulianDay(epochMillis);
+    for (int i = 0; i < 4; ++i) {
+      buffer[8 + i] = (byte) (julianDay >>> (i * 8));
+    }
+  }
+
   abstract public TestValues<?> getValues();
   abstract public String getSqlType();
   abstract public Type getSchema();
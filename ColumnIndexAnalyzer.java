@@ -0,0 +1,248 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.internal.column.columnindex.BoundaryOrder;
+import org.apache.parquet.internal.column.columnindex.ColumnIndex;
+import org.apache.parquet.internal.column.columnindex.OffsetIndex;
+import org.apache.parquet.internal.hadoop.metadata.IndexReference;
+
+/**
+ * Reports the footprint of the column and offset indexes of Parquet files per column: the index
+ * sizes compared to the data, the number of pages and null pages, the boundary orders and the
+ * widths of the min/max values as stored in the column indexes.
+ *
+ * Only the footers and the indexes are read, the pages are not touched. Files are analyzed
+ * concurrently and the results are merged by column, so it can be run on thousands of files.
+ */
+class ColumnIndexAnalyzer {
+  /**
+   * The merged index statistics of a column.
+   */
+  static class ColumnFootprint {
+    private long columnChunks;
+    private long dataBytes;
+    private long columnIndexBytes;
+    private long offsetIndexBytes;
+    private long missingColumnIndexes;
+    private long pages;
+    private long nullPages;
+    private final Map<BoundaryOrder, Long> boundaryOrders = new EnumMap<>(BoundaryOrder.class);
+    private final Width minWidth = new Width();
+    private final Width maxWidth = new Width();
+
+    void addChunk(ColumnChunkMetaData chunk, ColumnIndex columnIndex, OffsetIndex offsetIndex) {
+      ++columnChunks;
+      dataBytes += chunk.getTotalSize();
+      columnIndexBytes += getLength(chunk.getColumnIndexReference());
+      offsetIndexBytes += getLength(chunk.getOffsetIndexReference());
+      if (offsetIndex != null) {
+        pages += offsetIndex.getPageCount();
+      }
+      if (columnIndex == null) {
+        ++missingColumnIndexes;
+        return;
+      }
+      Long count = boundaryOrders.get(columnIndex.getBoundaryOrder());
+      boundaryOrders.put(columnIndex.getBoundaryOrder(), count == null ? 1 : count + 1);
+      List<Boolean> nullPageFlags = columnIndex.getNullPages();
+      List<ByteBuffer> minValues = columnIndex.getMinValues();
+      List<ByteBuffer> maxValues = columnIndex.getMaxValues();
+      for (int i = 0, n = nullPageFlags.size(); i < n; ++i) {
+        if (nullPageFlags.get(i)) {
+          // The min/max values of null pages are empty placeholders
+          ++nullPages;
+        } else {
+          minWidth.add(minValues.get(i).remaining());
+          maxWidth.add(maxValues.get(i).remaining());
+        }
+      }
+    }
+
+    void merge(ColumnFootprint other) {
+      columnChunks += other.columnChunks;
+      dataBytes += other.dataBytes;
+      columnIndexBytes += other.columnIndexBytes;
+      offsetIndexBytes += other.offsetIndexBytes;
+      missingColumnIndexes += other.missingColumnIndexes;
+      pages += other.pages;
+      nullPages += other.nullPages;
+      for (Map.Entry<BoundaryOrder, Long> entry : other.boundaryOrders.entrySet()) {
+        Long count = boundaryOrders.get(entry.getKey());
+        boundaryOrders.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+      }
+      minWidth.merge(other.minWidth);
+      maxWidth.merge(other.maxWidth);
+    }
+
+    public long getColumnIndexBytes() {
+      return columnIndexBytes;
+    }
+
+    public long getOffsetIndexBytes() {
+      return offsetIndexBytes;
+    }
+
+    public long getDataBytes() {
+      return dataBytes;
+    }
+
+    public long getPages() {
+      return pages;
+    }
+
+    public long getNullPages() {
+      return nullPages;
+    }
+
+    @Override
+    public String toString() {
+      double indexRatio = dataBytes == 0 ? 0 : (double) (columnIndexBytes + offsetIndexBytes) / dataBytes;
+      return String.format(
+          "%d chunks, data: %d bytes, column indexes: %d bytes, offset indexes: %d bytes (%.2f%% of data), "
+              + "pages: %d, null pages: %d, boundary orders: %s, min width: %s, max width: %s%s",
+          columnChunks, dataBytes, columnIndexBytes, offsetIndexBytes, indexRatio * 100, pages, nullPages,
+          boundaryOrders, minWidth, maxWidth,
+          missingColumnIndexes == 0 ? "" : ", chunks without column index: " + missingColumnIndexes);
+    }
+  }
+
+  /**
+   * Minimum, average and maximum of the widths of the min or max values in bytes.
+   */
+  private static class Width {
+    private long count;
+    private long sum;
+    private int min = Integer.MAX_VALUE;
+    private int max;
+
+    void add(int width) {
+      ++count;
+      sum += width;
+      min = Math.min(min, width);
+      max = Math.max(max, width);
+    }
+
+    void merge(Width other) {
+      count += other.count;
+      sum += other.sum;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+    }
+
+    @Override
+    public String toString() {
+      return count == 0 ? "-" : String.format("%d/%.1f/%d", min, (double) sum / count, max);
+    }
+  }
+
+  private ColumnIndexAnalyzer() {
+  }
+
+  /**
+   * Analyzes the files using the specified number of threads and returns the footprints by column
+   * path.
+   */
+  static Map<String, ColumnFootprint> analyze(List<Path> files, Configuration conf, int threads) throws Exception {
+    Map<String, ColumnFootprint> result = new TreeMap<>();
+    if (threads <= 1) {
+      for (Path file : files) {
+        merge(result, analyzeFile(file, conf));
+      }
+      return result;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Map<String, ColumnFootprint>>> futures = new ArrayList<>();
+      for (Path file : files) {
+        futures.add(executor.submit(() -> analyzeFile(file, conf)));
+      }
+      for (Future<Map<String, ColumnFootprint>> future : futures) {
+        merge(result, future.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    return result;
+  }
+
+  static Map<String, ColumnFootprint> analyzeFile(Path file, Configuration conf) throws IOException {
+    Map<String, ColumnFootprint> footprints = new TreeMap<>();
+    try (ParquetFileReader reader = ParquetFileReader.open(MappedInputFile.open(file, conf))) {
+      for (BlockMetaData block : reader.getFooter().getBlocks()) {
+        for (ColumnChunkMetaData chunk : block.getColumns()) {
+          String column = chunk.getPath().toDotString();
+          ColumnFootprint footprint = footprints.get(column);
+          if (footprint == null) {
+            footprint = new ColumnFootprint();
+            footprints.put(column, footprint);
+          }
+          footprint.addChunk(chunk, reader.readColumnIndex(chunk), reader.readOffsetIndex(chunk));
+        }
+      }
+    }
+    return footprints;
+  }
+
+  static String toReport(Map<String, ColumnFootprint> footprints) {
+    StringJoiner report = new StringJoiner("\n");
+    report.add("Column and offset index footprint (min/avg/max widths in bytes):");
+    for (Map.Entry<String, ColumnFootprint> entry : footprints.entrySet()) {
+      report.add(String.format("  %s: %s", entry.getKey(), entry.getValue()));
+    }
+    return report.toString();
+  }
+
+  private static void merge(Map<String, ColumnFootprint> target, Map<String, ColumnFootprint> source) {
+    for (Map.Entry<String, ColumnFootprint> entry : source.entrySet()) {
+      ColumnFootprint footprint = target.get(entry.getKey());
+      if (footprint == null) {
+        target.put(entry.getKey(), entry.getValue());
+      } else {
+        footprint.merge(entry.getValue());
+      }
+    }
+  }
+
+  private static long getLength(IndexReference reference) {
+    return reference == null ? 0 : reference.getLength();
+  }
+
+  /**
+   * Analyzes the Parquet files and the Parquet files in the directories specified as arguments.
+   */
+  public static void main(String[] args) throws Exception {
+    Configuration conf = new Configuration();
+    List<Path> files = new ArrayList<>();
+    for (String arg : args) {
+      Path path = new Path(arg);
+      FileSystem fs = path.getFileSystem(conf);
+      for (FileStatus status : fs.listStatus(path)) {
+        String name = status.getPath().getName();
+        if (status.isFile() && !name.startsWith(".") && !name.startsWith("_")) {
+          files.add(status.getPath());
+        }
+      }
+    }
+    System.out.println(ColumnIndexAnalyzer.toReport(
+        analyze(files, conf, Runtime.getRuntime().availableProcessors())));
+  }
+}
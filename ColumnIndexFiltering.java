@@ -3,16 +3,36 @@ package com.cloudera.cdh.tests.parquet.columnindexfiltering;
 
 import static com.cloudera.cdh.test.utils.StorageFormat.PARQUET;
 import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeTrue;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -23,11 +43,18 @@ import org.apache.hadoop.mapreduce.RecordWriter;
 import org.apache.parquet.example.data.Group;
 import org.apache.parquet.example.data.simple.NanoTime;
 import org.apache.parquet.example.data.simple.SimpleGroup;
+import org.apache.parquet.Version;
+import org.apache.parquet.bytes.BytesInput;
+import org.apache.parquet.hadoop.CodecFactory;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetOutputFormat;
 import org.apache.parquet.hadoop.example.ExampleOutputFormat;
 import org.apache.parquet.hadoop.example.GroupWriteSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
 import org.apache.parquet.io.api.Binary;
 import org.apache.parquet.schema.MessageType;
 import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
 import org.apache.parquet.schema.Types;
 import org.apache.parquet.schema.Types.GroupBuilder;
 import org.junit.AfterClass;
@@ -38,10 +65,10 @@ import org.junit.runners.Parameterized;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudera.cdh.test.common.Component;
 import com.cloudera.cdh.test.common.Editable;
 import com.cloudera.cdh.test.common.SQLTextQueryable;
 import com.cloudera.cdh.test.utils.Compression;
-import com.cloudera.cdh.test.utils.HDFSClient;
 import com.cloudera.cdh.test.utils.HiveClient;
 import com.cloudera.cdh.test.utils.ImpalaClient;
 import com.cloudera.cdh.test.utils.PresetUtils;
@@ -49,30 +76,71 @@ import com.cloudera.cdh.test.utils.SparkSQLClient;
 import com.cloudera.cdh.test.utils.StorageFormat;
 import com.cloudera.cdh.test.utils.TableReference;
 import com.cloudera.cdh.test.utils.TestIterationParametersBuilder;
-import com.cloudera.cdh.tests.parquet.columnindexfiltering.ColumnHelper.TestValues;
 import com.cloudera.itest.parameters.ParamAnnotation;
 import com.cloudera.itest.parameters.ParamVector;
 import com.cloudera.itest.testsuite.DataInterop;
 import com.google.common.collect.ImmutableMap;
 
 @Category(DataInterop.class)
-@RunWith(Parameterized.class)
+@RunWith(ParallelParameterized.class)
 public class ColumnIndexFiltering {
   private static final Logger LOGGER = LoggerFactory.getLogger(ColumnIndexFiltering.class);
 
-  // We want to reuse tables between individual test cases.
-  private static Map<Editable, TableReference> tblRefMap = new HashMap<>();
+  static final String FILE_COUNT_PROPERTY = "columnindexfiltering.files";
+  static final String ROWS_PER_FILE_PROPERTY = "columnindexfiltering.rows.per.file";
+  // "columnar" (default) writes through ColumnarWriteSupport, "group" through the example Group API
+  static final String WRITE_PATH_PROPERTY = "columnindexfiltering.write.path";
+  // Number of files written at the same time
+  static final String WRITER_THREADS_PROPERTY = "columnindexfiltering.writer.threads";
+  // "cluster" (default) uses the real components, "local" the in-process LocalParquetClient
+  static final String ENGINE_PROPERTY = "columnindexfiltering.engine";
+  // The component whose type support the local client mirrors
+  static final String LOCAL_COMPONENT_PROPERTY = "columnindexfiltering.local.component";
+  // "scan" (default) uses the results of the query with PPD disabled as reference, "oracle" the
+  // results calculated by ExpectedResultOracle
+  static final String REFERENCE_PROPERTY = "columnindexfiltering.reference";
+  // Checks all reference values of a column in a single query
+  static final String BATCHED_PROPERTY = "columnindexfiltering.batched";
+  // Order of the generated values, one of DataGenerator.Layout
+  static final String LAYOUT_PROPERTY = "columnindexfiltering.layout";
+  // Logs the footprint of the column and offset indexes of the written files
+  static final String ANALYZE_PROPERTY = "columnindexfiltering.analyze";
+  // Submits all the queries of a test case through AsyncQueryDispatcher before validating them
+  static final String ASYNC_PROPERTY = "columnindexfiltering.async";
+  // The nestings of the columns the matrix is checked on, see Nesting
+  static final String NESTING_PROPERTY = "columnindexfiltering.nesting";
+
+  // We want to reuse tables between individual test cases. The first test case of a fixture creates
+  // the table, the others wait for it, so that test cases can run concurrently.
+  private static final ConcurrentMap<FixtureKey, FutureTask<TableReference>> tblRefMap =
+      new ConcurrentHashMap<>();
+  private static final StorageBackend storage = StorageBackend.fromSystemProperties(isLocal());
   private static final FileSystem fs = getFileSystem();
+  // Keeps the written files between runs if enabled, see FixtureCache
+  private static final FixtureCache fixtureCache = createFixtureCache();
+  // Failures of results up to this size show the whole result sets
+  private static final int SMALL_RESULT_ROWS = 100;
+  private static final ConcurrentMap<List<ColumnHelper>, ExpectedResultOracle> oracles =
+      new ConcurrentHashMap<>();
+  // Write and pruning measurements by writer settings, i.e. by page and row group geometry, and
+  // compression
+  private static final ConcurrentMap<String, GeometryReport> geometryReports = new ConcurrentHashMap<>();
+  // Pages skipped/total pages of the local PPD runs by compound predicate shape
+  private static final ConcurrentMap<String, Queue<Double>> pruningRatios = new ConcurrentHashMap<>();
+  // Latency of every query by reader, column, operator and PPD setting
+  private static final LatencyReport latencies = new LatencyReport();
 
   private final List<ColumnHelper> supportedHelpers;
   private final SQLTextQueryable reader;
   private final Editable writer;
   private final ColumnHelper columnHelper;
   private final String operator;
+  private final Nesting nesting;
   private final StorageFormat format;
   private Path workingDir;
   private TableReference tblRef;
   private Compression compression;
+  private final WriterSettings writerSettings;
 
   public ColumnIndexFiltering(ParamVector.Builder<TestIterationParametersBuilder.TestIterationParameters> builder)
     throws Exception {
@@ -80,7 +148,10 @@ public class ColumnIndexFiltering {
     reader = (SQLTextQueryable) params.getReader();
     writer = params.getWriter();
     columnHelper = (ColumnHelper) params.getCustomData1();
-    operator = (String) params.getCustomData2();
+    OperatorInGeometry operatorInGeometry = (OperatorInGeometry) params.getCustomData2();
+    operator = operatorInGeometry.operator;
+    writerSettings = operatorInGeometry.settings;
+    nesting = operatorInGeometry.nesting;
     format = params.getStorageFormat();
     compression = params.getCompression();
     params.checkAllParamsRetrieved();
@@ -90,15 +161,99 @@ public class ColumnIndexFiltering {
       if (helper.isSupported(reader.getComponent()))
         columnList.add(helper);
     supportedHelpers = Collections.unmodifiableList(columnList);
-    tblRef = tblRefMap.get(params.getWriter());
-    if (tblRef == null) {
-      String prefix = getClass().getSimpleName() + '_' + writer.getComponent().name();
-      tblRef = TableReference.generateTableReference(prefix);
+    tblRef = getOrCreateTable(new FixtureKey(writer, supportedHelpers, writerSettings, nesting, compression));
+  }
+
+  /**
+   * An operator of the matrix checked on the tables written with the specified settings and
+   * nesting. The page and row group geometries and truncate lengths of
+   * {@link WriterSettings#sweepFromSystemProperties()} and the nestings of {@value #NESTING_PROPERTY}
+   * are crossed with the operators, as the iteration parameters have no other dimension for them.
+   */
+  static final class OperatorInGeometry {
+    private final String operator;
+    private final WriterSettings settings;
+    private final Nesting nesting;
+    private final boolean sweep;
+
+    OperatorInGeometry(String operator, WriterSettings settings, Nesting nesting, boolean sweep) {
+      this.operator = operator;
+      this.settings = settings;
+      this.nesting = nesting;
+      this.sweep = sweep;
+    }
+
+    @Override
+    public String toString() {
+      // Keeping the names of the test cases unchanged if there is nothing to sweep
+      String name = nesting == Nesting.FLAT ? operator : operator + " on " + nesting;
+      return sweep ? name + " (" + settings + ")" : name;
+    }
+  }
+
+  /**
+   * The tables depend on the writer, on the columns supported by the reader, on the writer
+   * settings, on the nesting of the columns and on the compression.
+   */
+  private static final class FixtureKey {
+    private final Editable writer;
+    private final List<ColumnHelper> columns;
+    private final WriterSettings settings;
+    private final Nesting nesting;
+    private final Compression compression;
+
+    FixtureKey(Editable writer, List<ColumnHelper> columns, WriterSettings settings, Nesting nesting,
+        Compression compression) {
+      this.writer = writer;
+      this.columns = columns;
+      this.settings = settings;
+      this.nesting = nesting;
+      this.compression = compression;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof FixtureKey)) {
+        return false;
+      }
+      FixtureKey other = (FixtureKey) obj;
+      return writer.equals(other.writer) && columns.equals(other.columns) && settings.equals(other.settings)
+          && nesting == other.nesting && compression == other.compression;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(writer, columns, settings, nesting, compression);
+    }
+  }
+
+  private TableReference getOrCreateTable(FixtureKey key) throws Exception {
+    FutureTask<TableReference> task = new FutureTask<>(this::createTable);
+    FutureTask<TableReference> existing = tblRefMap.putIfAbsent(key, task);
+    if (existing == null) {
+      existing = task;
+      task.run();
+    }
+    try {
+      return existing.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof Exception ? (Exception) cause : e;
+    }
+  }
+
+  private TableReference createTable() throws Exception {
+    String prefix = getClass().getSimpleName() + '_' + writer.getComponent().name();
+    tblRef = TableReference.generateTableReference(prefix);
+    if (fixtureCache == null) {
       workingDir = getWorkingDir(tblRef);
       createDir(workingDir);
-      createParquetTable();
-      tblRefMap.put(params.getWriter(), tblRef);
     }
+    ComponentThrottle.call(writer.getComponent(), () -> {
+      createParquetTable();
+      return null;
+    });
+    return tblRef;
   }
 
   @AfterClass
@@ -106,158 +261,352 @@ public class ColumnIndexFiltering {
     if (TableReference.KEEP_TABLES) {
       return;
     }
-    for (Map.Entry<Editable, TableReference> entry : tblRefMap.entrySet()) {
-      TableReference tblRef = entry.getValue();
-      Editable component = entry.getKey();
-      fs.delete(getWorkingDir(tblRef), true);
+    for (Map.Entry<FixtureKey, FutureTask<TableReference>> entry : tblRefMap.entrySet()) {
+      TableReference tblRef;
+      try {
+        tblRef = entry.getValue().get();
+      } catch (ExecutionException e) {
+        // The table could not be created
+        continue;
+      }
+      Editable component = entry.getKey().writer;
+      if (fixtureCache == null) {
+        fs.delete(getWorkingDir(tblRef), true);
+      }
+      // The tables on cached fixtures are external, dropping them keeps the files
       tblRef.drop(component);
     }
   }
 
+  @AfterClass
+  public static void closeAsyncReaders() throws Exception {
+    AsyncQueryDispatcher.closeAll();
+  }
+
   @Parameterized.Parameters(name = "{0}")
   public static List<ParamVector.Builder<TestIterationParametersBuilder.TestIterationParameters>[]> getTestDimensions()
     throws Exception {
     List<ColumnHelper> columnHelpers = asList(ColumnHelper.values());
+    List<String> codecs = PresetUtils.getByPropertyList(
+        asList("columnindexfiltering.compressions"),
+        ImmutableMap.of(
+            "default", asList("UNCOMPRESSED"),
+            "all", asList("UNCOMPRESSED", "SNAPPY", "GZIP", "ZSTD")
+        ));
     List<String> operators = PresetUtils.getByPropertyList(
         asList("columnindexfiltering.operators"),
         ImmutableMap.of(
             "default", asList("="),
-            "all", asList("=", "<", ">", "<=", ">=", "!=", "IS", "IS NOT")
+            "all", asList("=", "<", ">", "<=", ">=", "!=", "IS", "IS NOT"),
+            "compound", CompoundPredicateGenerator.SHAPES
         ));
-    return new TestIterationParametersBuilder()
-      .setWriters(new HiveClient(), new ImpalaClient(), new SparkSQLClient())
-      .setReaders(new HiveClient(), new ImpalaClient(), new SparkSQLClient())
-      .addSameReaderWriterRule(ParamAnnotation.NOT_TO_BE_TESTED)
+    List<String> nestings = PresetUtils.getByPropertyList(
+        asList(NESTING_PROPERTY),
+        ImmutableMap.of(
+            "default", asList("FLAT"),
+            "nested", asList("STRUCT", "LIST", "MAP"),
+            "all", asList("FLAT", "STRUCT", "LIST", "MAP")
+        ));
+    TestIterationParametersBuilder builder = new TestIterationParametersBuilder();
+    if (isLocal()) {
+      // The same client creates the tables and reads them back
+      LocalParquetClient client =
+          new LocalParquetClient(Component.valueOf(System.getProperty(LOCAL_COMPONENT_PROPERTY, "SPARK")));
+      builder = builder
+        .setWriters(client)
+        .setReaders(client);
+    } else {
+      builder = builder
+        .setWriters(new HiveClient(), new ImpalaClient(), new SparkSQLClient())
+        .setReaders(new HiveClient(), new ImpalaClient(), new SparkSQLClient())
+        .addSameReaderWriterRule(ParamAnnotation.NOT_TO_BE_TESTED);
+    }
+    return builder
       .setCustomData1(columnHelpers)
-      .setCustomData2(operators)
+      .setCustomData2(crossWithGeometries(operators, nestings))
       .setFormats(PARQUET)
-      .setCompressions(Compression.UNCOMPRESSED)
+      .setCompressions(getAvailableCompressions(codecs))
       .build();
   }
 
-  private static MessageType createParquetSchema(List<ColumnHelper> columns) {
+  /**
+   * Returns the compressions whose codec can actually compress in this JVM; e.g. ZSTD needs the
+   * native Hadoop library.
+   */
+  private static Compression[] getAvailableCompressions(List<String> names) {
+    List<Compression> compressions = new ArrayList<>();
+    CodecFactory codecFactory = new CodecFactory(new Configuration(), 1024);
+    try {
+      for (String name : names) {
+        Compression compression = Compression.valueOf(name.toUpperCase(Locale.ROOT));
+        try {
+          codecFactory.getCompressor(compression.getCompressionCodecName())
+              .compress(BytesInput.from(new byte[] { 1, 2, 3 }));
+          compressions.add(compression);
+        } catch (Exception | LinkageError e) {
+          LOGGER.warn("Skipping compression {}, the codec is not available: {}", compression, e.toString());
+        }
+      }
+    } finally {
+      codecFactory.release();
+    }
+    return compressions.toArray(new Compression[0]);
+  }
+
+  private static List<OperatorInGeometry> crossWithGeometries(List<String> operators, List<String> nestings) {
+    List<WriterSettings> geometries = WriterSettings.sweepFromSystemProperties();
+    List<OperatorInGeometry> result = new ArrayList<>();
+    for (WriterSettings settings : geometries) {
+      for (String name : nestings) {
+        Nesting nesting = Nesting.valueOf(name.toUpperCase(Locale.ROOT));
+        for (String operator : operators) {
+          result.add(new OperatorInGeometry(operator, settings.forNesting(nesting), nesting, geometries.size() > 1));
+        }
+      }
+    }
+    return result;
+  }
+
+  static MessageType createParquetSchema(List<ColumnHelper> columns) {
+    return createParquetSchema(columns, Nesting.FLAT);
+  }
+
+  static MessageType createParquetSchema(List<ColumnHelper> columns, Nesting nesting) {
     GroupBuilder<MessageType> builder = Types.buildMessage();
     builder = builder.addField(Types.optional(PrimitiveType.PrimitiveTypeName.INT32).named("id"));
     for (ColumnHelper helper : columns) {
-      builder = builder.addField(helper.getSchema());
+      for (Type field : nesting.getFields(helper)) {
+        builder = builder.addField(field);
+      }
     }
     return builder.named("record");
   }
 
   private void createParquetTable() throws Exception {
-    writeParquetFiles();
+    if (fixtureCache == null) {
+      writeParquetFiles();
+    } else {
+      AtomicBoolean written = new AtomicBoolean();
+      workingDir = fixtureCache.getOrCreate(describeFixture(), dir -> {
+        workingDir = dir;
+        writeParquetFiles();
+        written.set(true);
+      });
+      if (!written.get()) {
+        reportCachedFiles();
+      }
+    }
+    writer.executeSqlUpdate(createTableStatement(tblRef.toString(), supportedHelpers, nesting, workingDir));
+  }
+
+  static String createTableStatement(String tableName, List<ColumnHelper> columns, Path location) {
+    return createTableStatement(tableName, columns, Nesting.FLAT, location);
+  }
 
-    StringBuilder builder = new StringBuilder("CREATE EXTERNAL TABLE ").append(tblRef).append("(id int, ");
+  static String createTableStatement(String tableName, List<ColumnHelper> columns, Nesting nesting,
+      Path location) {
+    StringBuilder builder = new StringBuilder("CREATE EXTERNAL TABLE ").append(tableName).append("(id int, ");
     String sep = "";
-    for (ColumnHelper helper : supportedHelpers) {
-      builder.append(sep).append(helper.getColumnName()).append(' ').append(helper.getSqlType());
+    for (ColumnHelper helper : columns) {
+      builder.append(sep).append(nesting.getSqlColumns(helper));
       sep = ", ";
     }
-    builder.append(")\nSTORED AS PARQUET\nLOCATION '").append(workingDir).append('\'');
-    writer.executeSqlUpdate(builder.toString());
+    builder.append(")\nSTORED AS PARQUET\nLOCATION '").append(location).append('\'');
+    return builder.toString();
   }
 
   /**
-   * Generate values according to the test plan
+   * Generate values according to the test plan. The geometry of the data can be scaled up using the
+   * {@value #FILE_COUNT_PROPERTY} and {@value #ROWS_PER_FILE_PROPERTY} system properties; the
+   * pattern of the values remains the same.
    */
-  private List<List<List<Object>>> generateColumnOrientedData() {
-    // Add IDs as the first column
-    List<List<List<Object>>> valuesByFileAndCol = asList(
-        new ArrayList<>(asList(asList(
-            1, 2, 3,
-            4, 5, 6,
-            7))),
-        new ArrayList<>(asList(asList(
-            8, 9, 10,
-            11, 12, 13,
-            14, 15, 16))),
-        new ArrayList<>(asList(asList(
-            17, 18, 19,
-            20, 21, 22,
-            23))));
-    for (ColumnHelper col : supportedHelpers) {
-      TestValues<?> v = col.getValues();
-      Object a = v.values.get(0);
-      Object b = v.values.get(1);
-      Object c = v.values.get(2);
-      Object d = v.values.get(3);
-      Object N = null;
-      valuesByFileAndCol.get(0).add(asList(
-          a, b, c,
-          b, c, d,
-          N));
-      valuesByFileAndCol.get(1).add(asList(
-          N, c, d,
-          N, N, N,
-          a, c, N));
-      valuesByFileAndCol.get(2).add(asList(
-          b, N, d,
-          a, N, a,
-          b));
-    }
-    return valuesByFileAndCol;
+  private DataGenerator createDataGenerator() {
+    Long rowsPerFile = Long.getLong(ROWS_PER_FILE_PROPERTY);
+    DataGenerator generator = rowsPerFile == null
+        ? DataGenerator.forTestPlan(supportedHelpers)
+        : DataGenerator.scaled(supportedHelpers, Integer.getInteger(FILE_COUNT_PROPERTY, 3), rowsPerFile);
+    String layout = System.getProperty(LAYOUT_PROPERTY);
+    if (layout != null) {
+      generator = generator.withLayout(DataGenerator.Layout.valueOf(layout.toUpperCase(Locale.ROOT)));
+    }
+    return generator;
   }
 
   /**
-   * Transposes the inner matrix in the generated data for usage in the row-oriented API.
+   * Describes everything the content of the written files depends on; the fixtures are cached by the
+   * hash of this description.
    */
-  private List<List<List<Object>>> convertColumnOrientedDataToRowOriented(
-      List<List<List<Object>>> valuesByFileAndCol) {
-    List<List<List<Object>>> valuesByFileAndRow =
-        asList(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
-    for (int fileNo = 0; fileNo < valuesByFileAndCol.size(); ++fileNo) {
-      List<List<Object>> colsInFile = valuesByFileAndCol.get(fileNo);
-      List<List<Object>> rowsInFile = valuesByFileAndRow.get(fileNo);
-      int rowCount = colsInFile.get(0).size();
-      for (int i = 0; i < rowCount; ++i) {
-        List<Object> valuesInRow = new ArrayList<>();
-        for (List<Object> col : colsInFile) {
-          valuesInRow.add(col.get(i));
+  private String describeFixture() {
+    DataGenerator generator = createDataGenerator();
+    StringJoiner description = new StringJoiner("\n");
+    description.add("parquet-mr: " + Version.FULL_VERSION);
+    description.add("schema: " + createParquetSchema(supportedHelpers, nesting));
+    description.add("data: " + generator);
+    for (int fileNo = 0; fileNo < generator.getFileCount(); ++fileNo) {
+      description.add("file " + fileNo + ": " + generator.getRowCount(fileNo) + " rows");
+    }
+    for (ColumnHelper helper : supportedHelpers) {
+      description.add(helper.getColumnName() + " values: " + helper.getValues().values);
+    }
+    description.add("writer settings: " + writerSettings);
+    description.add("compression: " + compression);
+    description.add("write path: " + System.getProperty(WRITE_PATH_PROPERTY, "columnar"));
+    return description.toString();
+  }
+
+  private void writeDataToParquetFiles(final DataGenerator generator) throws Exception {
+    final MessageType schema = createParquetSchema(supportedHelpers, nesting);
+    fs.mkdirs(workingDir, new FsPermission(FsAction.ALL, FsAction.ALL, FsAction.ALL));
+    final Configuration conf = new Configuration();
+    writerSettings.applyTo(conf);
+    LOGGER.info("Writer settings: {}", writerSettings);
+    final boolean columnar = !"group".equals(System.getProperty(WRITE_PATH_PROPERTY));
+    int threads = Math.min(Integer.getInteger(WRITER_THREADS_PROPERTY, 1), generator.getFileCount());
+    long start = System.nanoTime();
+    long bytes = 0;
+    if (threads <= 1) {
+      for (int fileNo = 0; fileNo < generator.getFileCount(); ++fileNo) {
+        bytes += writeParquetFile(new Configuration(conf), schema, generator, fileNo, columnar);
+      }
+    } else {
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int fileNo = 0; fileNo < generator.getFileCount(); ++fileNo) {
+          final int no = fileNo;
+          // Every file gets its own configuration as the write supports store their schema in it
+          futures.add(executor.submit(
+              () -> writeParquetFile(new Configuration(conf), schema, generator, no, columnar)));
+        }
+        for (Future<Long> future : futures) {
+          bytes += future.get();
         }
-        rowsInFile.add(valuesInRow);
+      } finally {
+        executor.shutdownNow();
       }
     }
-    return valuesByFileAndRow;
+    long nanos = System.nanoTime() - start;
+    getGeometryReport().addWrite(generator.getTotalRowCount(), bytes, nanos);
+    reportFiles(generator, conf, threads);
+    double seconds = Math.max(nanos, 1) / 1e9;
+    LOGGER.info("Written {} ({} bytes) using {} thread(s) in {} s: {} rows/s, {} MB/s.",
+        generator, bytes, Math.max(threads, 1), String.format("%.3f", seconds),
+        String.format("%.0f", generator.getTotalRowCount() / seconds),
+        String.format("%.2f", bytes / seconds / (1024 * 1024)));
   }
 
-  private void writeDataToParquetFiles(List<List<List<Object>>> valuesByFileAndRow) throws Exception {
-    MessageType schema = createParquetSchema(supportedHelpers);
-    fs.mkdirs(workingDir, new FsPermission(FsAction.ALL, FsAction.ALL, FsAction.ALL));
-    Configuration conf = new Configuration();
-    conf.setInt("parquet.page.row.count.limit", 3);
-    for (int fileNo = 0; fileNo < valuesByFileAndRow.size(); ++fileNo) {
-      List<List<Object>> rowsInFile = valuesByFileAndRow.get(fileNo);
-      Path parquetFile = new Path(workingDir, String.format("%d.parquet", fileNo));
-      GroupWriteSupport.setSchema(schema, conf);
-      ExampleOutputFormat outputFormat = new ExampleOutputFormat();
-      RecordWriter<Void, Group> writer =
-          outputFormat.getRecordWriter(conf, parquetFile, compression.getCompressionCodecName());
-      for (List<Object> row : rowsInFile)
-        writer.write(null, createParquetGroup(schema, row));
-      writer.close(null);
+  /**
+   * Adds the files of a fixture reused from the cache to the geometry report like the written ones;
+   * only the write throughput is missing.
+   */
+  private void reportCachedFiles() throws Exception {
+    DataGenerator generator = createDataGenerator();
+    long bytes = 0;
+    for (Path file : getFixtureFiles(generator)) {
+      bytes += fs.getFileStatus(file).getLen();
+    }
+    LOGGER.info("Reusing {} ({} bytes) in {}.", generator, bytes, workingDir);
+    getGeometryReport().addCached(generator.getTotalRowCount(), bytes);
+    reportFiles(generator, new Configuration(),
+        Math.min(Integer.getInteger(WRITER_THREADS_PROPERTY, 1), generator.getFileCount()));
+  }
+
+  /**
+   * Adds the footers of the files in {@link #workingDir} to the geometry report and logs the report
+   * of {@link ColumnIndexAnalyzer} if {@value #ANALYZE_PROPERTY} is set.
+   */
+  private void reportFiles(DataGenerator generator, Configuration conf, int threads) throws Exception {
+    GeometryReport report = getGeometryReport();
+    List<Path> files = getFixtureFiles(generator);
+    for (Path parquetFile : files) {
+      try (ParquetFileReader reader = ParquetFileReader.open(MappedInputFile.open(parquetFile, conf))) {
+        report.addFooter(reader.getFooter());
+      }
+    }
+    if (Boolean.getBoolean(ANALYZE_PROPERTY)) {
+      LOGGER.info("{} ({})\n{}", workingDir, writerSettings, ColumnIndexAnalyzer.toReport(
+          ColumnIndexAnalyzer.analyze(files, conf, Math.max(threads, 1))));
+    }
+  }
+
+  private List<Path> getFixtureFiles(DataGenerator generator) {
+    List<Path> files = new ArrayList<>();
+    for (int fileNo = 0; fileNo < generator.getFileCount(); ++fileNo) {
+      files.add(new Path(workingDir, String.format("%d.parquet", fileNo)));
     }
+    return files;
+  }
+
+  /**
+   * Writes the specified file of the generated data and returns its size in bytes.
+   */
+  private long writeParquetFile(Configuration conf, MessageType schema, DataGenerator generator, int fileNo,
+      boolean columnar) throws Exception {
+    Path parquetFile = new Path(workingDir, String.format("%d.parquet", fileNo));
+    if (columnar) {
+      writeColumnarParquetFile(parquetFile, conf, schema, nesting, generator, fileNo,
+          compression.getCompressionCodecName());
+    } else {
+      writeGroupParquetFile(parquetFile, conf, schema, generator, fileNo);
+    }
+    return fs.getFileStatus(parquetFile).getLen();
+  }
+
+  static void writeColumnarParquetFile(Path parquetFile, Configuration conf, MessageType schema,
+      DataGenerator generator, int fileNo, CompressionCodecName codec) throws Exception {
+    writeColumnarParquetFile(parquetFile, conf, schema, Nesting.FLAT, generator, fileNo, codec);
+  }
+
+  static void writeColumnarParquetFile(Path parquetFile, Configuration conf, MessageType schema, Nesting nesting,
+      DataGenerator generator, int fileNo, CompressionCodecName codec) throws Exception {
+    ParquetOutputFormat<ColumnarWriteSupport.Row> outputFormat =
+        new ParquetOutputFormat<>(new ColumnarWriteSupport(schema, generator, nesting));
+    RecordWriter<Void, ColumnarWriteSupport.Row> writer =
+        outputFormat.getRecordWriter(conf, parquetFile, codec);
+    ColumnarWriteSupport.Row row = new ColumnarWriteSupport.Row();
+    long first = generator.getFirstRow(fileNo);
+    for (long end = first + generator.getRowCount(fileNo); first < end; ++first) {
+      row.index = first;
+      writer.write(null, row);
+    }
+    writer.close(null);
+  }
+
+  private void writeGroupParquetFile(Path parquetFile, Configuration conf, MessageType schema,
+      DataGenerator generator, int fileNo) throws Exception {
+    GroupWriteSupport.setSchema(schema, conf);
+    ExampleOutputFormat outputFormat = new ExampleOutputFormat();
+    RecordWriter<Void, Group> writer =
+        outputFormat.getRecordWriter(conf, parquetFile, compression.getCompressionCodecName());
+    // Rows are generated on the fly so that memory usage does not depend on the size of the data
+    for (Iterator<List<Object>> rows = generator.rows(fileNo); rows.hasNext();)
+      writer.write(null, createParquetGroup(schema, rows.next()));
+    writer.close(null);
   }
 
   private void writeParquetFiles() throws Exception {
-    List<List<List<Object>>> valuesByFileAndCol = generateColumnOrientedData();
-    List<List<List<Object>>> valuesByFileAndRow =
-        convertColumnOrientedDataToRowOriented(valuesByFileAndCol);
-    writeDataToParquetFiles(valuesByFileAndRow);
+    DataGenerator generator = createDataGenerator();
+    LOGGER.info("Writing {} to {}.", generator, workingDir);
+    writeDataToParquetFiles(generator);
   }
 
   private Group createParquetGroup(MessageType schema, List<Object> row) {
     Group group = new SimpleGroup(schema.asGroupType());
     // First value is the ID
-    group.add(0, (Integer) row.get(0));
+    int id = (Integer) row.get(0);
+    group.add(0, id);
     for (int i = 1, n = row.size(); i < n; ++i) {
+      ColumnHelper helper = supportedHelpers.get(i - 1);
       if (row.get(i) != null) {
-        addValueToGroup(group, i, supportedHelpers.get(i - 1).valueToFileFormatValue(row.get(i)));
+        nesting.addToGroup(group, helper, helper.valueToFileFormatValue(row.get(i)), id);
+      } else {
+        nesting.addNullToGroup(group, helper, id);
       }
     }
     return group;
   }
 
-  private static void addValueToGroup(Group group, int i, Object value) {
+  static void addValueToGroup(Group group, int i, Object value) {
     Class<?> c = value.getClass();
     if (c.equals(Integer.class))
       group.add(i, (Integer) value);
@@ -287,34 +636,336 @@ public class ColumnIndexFiltering {
   }
 
   private static Path getWorkingDir(TableReference tblRef) throws Exception {
-    return new Path(fs.getHomeDirectory(), tblRef.getName());
+    return new Path(storage.getBaseDir(fs), tblRef.getName());
+  }
+
+  private static boolean isLocal() {
+    return "local".equals(System.getProperty(ENGINE_PROPERTY));
   }
 
   private void validateQueryResults(String query) throws Exception {
-    reader.setPredicatePushdown(false); // Disable PPD
-    List<List<Object>> referenceRows = reader.executeTextQueryReturningObjects(query);
-    reader.setPredicatePushdown(true); // Enable PPD
-    List<List<Object>> actualRows = reader.executeTextQueryReturningObjects(query);
+    if ("oracle".equals(System.getProperty(REFERENCE_PROPERTY))) {
+      validateQueryResultsWithOracle(query);
+      return;
+    }
+    if (reader instanceof LocalParquetClient) {
+      validateLocalQueryResults((LocalParquetClient) reader, query);
+      return;
+    }
+    List<List<List<Object>>> results = ComponentThrottle.call(reader.getComponent(), () -> {
+      // The PPD setting is the state of the reader, so the two queries must not be interleaved with
+      // those of other test cases using the same reader.
+      synchronized (reader) {
+        reader.setPredicatePushdown(false); // Disable PPD
+        long start = System.nanoTime();
+        List<List<Object>> referenceRows = reader.executeTextQueryReturningObjects(query);
+        recordLatency(false, System.nanoTime() - start);
+        reader.setPredicatePushdown(true); // Enable PPD
+        start = System.nanoTime();
+        List<List<Object>> actualRows = reader.executeTextQueryReturningObjects(query);
+        recordLatency(true, System.nanoTime() - start);
+        return asList(referenceRows, actualRows);
+      }
+    });
+    validateData(results.get(0), results.get(1));
+  }
+
+  /**
+   * Validates the queries one after the other, or pipelines them if {@value #ASYNC_PROPERTY} is set:
+   * the reference and PPD runs of all the queries are submitted before any of the results are
+   * compared. The oracle and the local client check more than the returned rows per query, so they
+   * are not pipelined.
+   */
+  private void validateQueryResults(List<String> queries) throws Exception {
+    if (!Boolean.getBoolean(ASYNC_PROPERTY) || "oracle".equals(System.getProperty(REFERENCE_PROPERTY))
+        || reader instanceof LocalParquetClient) {
+      for (String query : queries) {
+        validateQueryResults(query);
+      }
+      return;
+    }
+    AsyncQueryDispatcher dispatcher = AsyncQueryDispatcher.forReader(reader);
+    List<CompletableFuture<AsyncQueryDispatcher.Result>> referenceResults = new ArrayList<>();
+    List<CompletableFuture<AsyncQueryDispatcher.Result>> actualResults = new ArrayList<>();
+    for (String query : queries) {
+      referenceResults.add(dispatcher.submit(query, false));
+      actualResults.add(dispatcher.submit(query, true));
+    }
+    for (int i = 0; i < queries.size(); ++i) {
+      AsyncQueryDispatcher.Result reference = getResult(referenceResults.get(i));
+      AsyncQueryDispatcher.Result actual = getResult(actualResults.get(i));
+      recordLatency(false, reference.nanos);
+      recordLatency(true, actual.nanos);
+      validateData(reference.rows, actual.rows);
+    }
+  }
+
+  private static <T> T getResult(Future<T> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof Exception ? (Exception) cause : e;
+    }
+  }
+
+  /**
+   * Runs the query only with PPD enabled and compares the returned IDs to the ones calculated from
+   * the generated data. The values themselves are not compared as their representation depends on
+   * the reader.
+   */
+  private void validateQueryResultsWithOracle(String query) throws Exception {
+    ExpectedResultOracle oracle =
+        oracles.computeIfAbsent(supportedHelpers, columns -> new ExpectedResultOracle(createDataGenerator()));
+    LocalQuery parsedQuery = parseQuery(query);
+    int[] expectedIds = oracle.getMatchingIds(parsedQuery.getWhere());
+    List<List<Object>> actualRows = ComponentThrottle.call(reader.getComponent(), () -> {
+      long start = System.nanoTime();
+      List<List<Object>> rows;
+      if (reader instanceof LocalParquetClient) {
+        rows = ((LocalParquetClient) reader).executeQuery(query, true, new PageIoStats());
+      } else {
+        synchronized (reader) {
+          reader.setPredicatePushdown(true); // Enable PPD
+          start = System.nanoTime();
+          rows = reader.executeTextQueryReturningObjects(query);
+        }
+      }
+      recordLatency(true, System.nanoTime() - start);
+      return rows;
+    });
+    int[] actualIds = new int[actualRows.size()];
+    for (int i = 0; i < actualIds.length; ++i) {
+      actualIds[i] = ((Number) actualRows.get(i).get(0)).intValue();
+    }
+    assertArrayEquals(query, expectedIds, actualIds);
+
+    // Rows of batched queries are tagged by the individual predicates
+    List<LocalQuery.SelectItem> items = parsedQuery.getSelectItems();
+    for (int i = 0, n = items.size(); i < n; ++i) {
+      FilterExpression tag = items.get(i).getTag();
+      if (tag == null) {
+        continue;
+      }
+      int[] expectedTaggedIds = oracle.getMatchingIds(tag);
+      int count = 0;
+      int[] actualTaggedIds = new int[actualIds.length];
+      for (int j = 0; j < actualIds.length; ++j) {
+        if (((Number) actualRows.get(j).get(i)).intValue() == 1) {
+          actualTaggedIds[count++] = actualIds[j];
+        }
+      }
+      assertArrayEquals(query + "\nfor predicate " + tag, expectedTaggedIds,
+          Arrays.copyOf(actualTaggedIds, count));
+    }
+  }
+
+  private LocalQuery parseQuery(String query) {
+    Map<String, ColumnHelper> columnsByName = new HashMap<>();
+    for (ColumnHelper helper : supportedHelpers) {
+      columnsByName.put(nesting.getReference(helper), helper);
+    }
+    return LocalQuery.parse(query, columnsByName);
+  }
+
+  /**
+   * Besides comparing the results, checks that the PPD run actually skips pages whenever the
+   * statistics or the column indexes allow dropping anything, and that it reads no more pages
+   * than {@link ExpectedPruning} calculates from the indexes; a reader that silently reads
+   * everything would return the correct results as well.
+   */
+  private void validateLocalQueryResults(LocalParquetClient client, String query) throws Exception {
+    PageIoStats referenceStats = new PageIoStats();
+    List<List<Object>> referenceRows =
+        ComponentThrottle.call(client.getComponent(), () -> executeTimed(client, query, false, referenceStats));
+    PageIoStats actualStats = new PageIoStats();
+    List<List<Object>> actualRows =
+        ComponentThrottle.call(client.getComponent(), () -> executeTimed(client, query, true, actualStats));
+    LOGGER.info("{}\n  PPD off: {}\n  PPD on: {}\n  saved by PPD ({}): {} bytes decompressed, {} ms CPU time",
+        query, referenceStats, actualStats, compression,
+        referenceStats.getUncompressedBytesRead() - actualStats.getUncompressedBytesRead(),
+        String.format("%.3f", (referenceStats.getCpuNanos() - actualStats.getCpuNanos()) / 1e6));
+    getGeometryReport().addQuery(actualStats);
     validateData(referenceRows, actualRows);
+    if (actualStats.isPruned()) {
+      assertTrue(String.format("Pages should have been skipped for query: %s (PPD off: %s, PPD on: %s)",
+          query, referenceStats, actualStats),
+          actualStats.getPagesRead() < referenceStats.getPagesRead());
+    }
+    LocalQuery parsedQuery = parseQuery(query);
+    ExpectedPruning expectedPruning = ExpectedPruning.calculate(client.openTableFiles(tblRef.toString()),
+        parsedQuery.getWhere(), nesting, LocalParquetClient.getProjectedColumns(parsedQuery));
+    Map<String, String> unpruned = expectedPruning.findUnprunedColumns(actualStats);
+    assertTrue(String.format(
+        "More pages were read than the indexes require for query: %s (expected: %s, PPD on: %s): %s",
+        query, expectedPruning, actualStats, unpruned), unpruned.isEmpty());
+    if (CompoundPredicateGenerator.isCompound(operator)) {
+      recordPruningRatio(actualStats);
+    }
+    if (nesting.hasSibling()) {
+      recordSiblingPages(expectedPruning, actualStats);
+    }
+    if (operator.equals("=") || operator.equals("!=")) {
+      validatePruningLayers(client, query, referenceRows);
+    }
+  }
+
+  private List<List<Object>> executeTimed(LocalParquetClient client, String query, boolean pushdown,
+      PageIoStats stats) {
+    long start = System.nanoTime();
+    List<List<Object>> rows = client.executeQuery(query, pushdown, stats);
+    recordLatency(pushdown, System.nanoTime() - start);
+    return rows;
+  }
+
+  private void recordLatency(boolean pushdown, long nanos) {
+    String label = nesting == Nesting.FLAT ? operator : operator + " on " + nesting;
+    latencies.record(reader.getComponent().name(), columnHelper, label, writerSettings, compression.name(),
+        pushdown, nanos);
+  }
+
+  /**
+   * Measures how the pruning of the filtered struct leaf carries over to its repeated sibling: the
+   * pages of both columns are read through the same row ranges.
+   */
+  private void recordSiblingPages(ExpectedPruning expectedPruning, PageIoStats stats) {
+    Map<String, Long> totalPages = expectedPruning.getTotalPages();
+    Map<String, Long> pagesRead = stats.getPagesReadByColumn();
+    String leaf = nesting.getLeafPath(columnHelper);
+    String sibling = nesting.getSiblingLeafPath(columnHelper);
+    getGeometryReport().addSiblingPages(totalPages.getOrDefault(leaf, 0L), pagesRead.getOrDefault(leaf, 0L),
+        totalPages.getOrDefault(sibling, 0L), pagesRead.getOrDefault(sibling, 0L));
+  }
+
+  /**
+   * Keeps the pruning ratios of the compound predicate shapes so that they can be compared at the
+   * end of the run.
+   */
+  private void recordPruningRatio(PageIoStats stats) {
+    pruningRatios.computeIfAbsent(operator, shape -> new ConcurrentLinkedQueue<>()).add(stats.getPruningRatio());
+  }
+
+  private GeometryReport getGeometryReport() {
+    String key = writerSettings + ", " + compression + (nesting == Nesting.FLAT ? "" : ", " + nesting);
+    return geometryReports.computeIfAbsent(key, k -> new GeometryReport());
+  }
+
+  @AfterClass
+  public static void reportGeometries() {
+    if (geometryReports.isEmpty()) {
+      return;
+    }
+    StringJoiner report = new StringJoiner("\n");
+    report.add("Page and row group geometries:");
+    for (Map.Entry<String, GeometryReport> entry : new TreeMap<>(geometryReports).entrySet()) {
+      report.add(String.format("  %s: %s", entry.getKey(), entry.getValue()));
+    }
+    LOGGER.info(report.toString());
+  }
+
+  @AfterClass
+  public static void reportLatencies() throws IOException {
+    if (latencies.isEmpty()) {
+      return;
+    }
+    List<String> regressions = latencies.writeAndCompare();
+    assertTrue("Latency regressions against " + System.getProperty(LatencyReport.BASELINE_PROPERTY) + ":\n"
+        + String.join("\n", regressions), regressions.isEmpty());
+  }
+
+  @AfterClass
+  public static void reportPruningRatios() {
+    if (pruningRatios.isEmpty()) {
+      return;
+    }
+    StringJoiner report = new StringJoiner("\n");
+    report.add("Pruning ratio of the compound predicates (skipped/total pages):");
+    for (Map.Entry<String, Queue<Double>> entry : new TreeMap<>(pruningRatios).entrySet()) {
+      double sum = 0;
+      double min = 1;
+      double max = 0;
+      for (double ratio : entry.getValue()) {
+        sum += ratio;
+        min = Math.min(min, ratio);
+        max = Math.max(max, ratio);
+      }
+      report.add(String.format("  %s: avg %.3f, min %.3f, max %.3f over %d queries", entry.getKey(),
+          sum / entry.getValue().size(), min, max, entry.getValue().size()));
+    }
+    LOGGER.info(report.toString());
+  }
+
+  /**
+   * Pushes down the predicate to the filtering mechanisms one by one to see how many row groups and
+   * pages each of them eliminates. The results have to be correct with each of them separately.
+   */
+  private void validatePruningLayers(LocalParquetClient client, String query, List<List<Object>> referenceRows)
+      throws Exception {
+    StringJoiner report = new StringJoiner("\n");
+    report.add(String.format("Pruning of %s %s (%s):", columnHelper, operator, writerSettings));
+    for (LocalParquetClient.FilterLayer layer : LocalParquetClient.FilterLayer.values()) {
+      PageIoStats stats = new PageIoStats();
+      List<List<Object>> rows =
+          ComponentThrottle.call(client.getComponent(), () -> client.executeQuery(query, EnumSet.of(layer), stats));
+      validateData(referenceRows, rows);
+      report.add(String.format("  %s: %d row groups and %d pages eliminated", layer, stats.getRowGroupsSkipped(),
+          stats.getPagesSkipped()));
+    }
+    LOGGER.info(report.toString());
   }
 
   @Test
   public void testFiltering() throws Exception {
     String query = "SELECT id, %s FROM %s WHERE %s %s %s ORDER BY id";
     assumeTrue("Skipping unsupported column type.", supportedHelpers.contains(columnHelper));
-    String columnName = columnHelper.getColumnName();
+    String columnName = nesting.getReference(columnHelper);
+    // The repeated siblings of nested columns are read through the row ranges of the filtered column
+    String selected = nesting.getSelectList(columnHelper);
+    List<String> queries = new ArrayList<>();
     switch (operator) {
     case "IS":
     case "IS NOT":
-      validateQueryResults(String.format(query, columnName, tblRef, columnName, operator, "NULL"));
+      queries.add(String.format(query, selected, tblRef, columnName, operator, "NULL"));
+      break;
+    case "BETWEEN":
+    case "IN":
+    case "AND":
+    case "OR":
+      for (String predicate :
+          CompoundPredicateGenerator.generate(operator, columnHelper, supportedHelpers, nesting)) {
+        queries.add(String.format("SELECT id, %s FROM %s WHERE %s ORDER BY id", selected, tblRef, predicate));
+      }
       break;
     default:
+      if (Boolean.getBoolean(BATCHED_PROPERTY)) {
+        queries.add(createBatchedQuery(columnName, selected, columnHelper.getValues().values));
+        break;
+      }
       for (Object refValue : columnHelper.getValues().values) {
-        validateQueryResults(String.format(query, columnName, tblRef, columnName, operator,
+        queries.add(String.format(query, selected, tblRef, columnName, operator,
             columnHelper.valueToSqlLiteral(refValue)));
       }
       break;
     }
+    validateQueryResults(queries);
+  }
+
+  /**
+   * Creates a single query checking all the reference values at once: the WHERE clause is the
+   * disjunction of the predicates and every returned row is tagged by the predicates it matches.
+   * The pages dropped are the ones none of the predicates match, so pruning is checked for the
+   * union of the predicates instead of each of them separately.
+   */
+  private String createBatchedQuery(String columnName, String selected, List<?> refValues) {
+    StringJoiner tags = new StringJoiner(", ");
+    StringJoiner predicates = new StringJoiner(" OR ");
+    for (int i = 0, n = refValues.size(); i < n; ++i) {
+      String predicate = String.format("%s %s %s", columnName, operator,
+          columnHelper.valueToSqlLiteral(refValues.get(i)));
+      tags.add(String.format("CASE WHEN %s THEN 1 ELSE 0 END AS p%d", predicate, i));
+      predicates.add('(' + predicate + ')');
+    }
+    return String.format("SELECT id, %s, %s FROM %s WHERE %s ORDER BY id", selected, tags, tblRef, predicates);
   }
 
   private String rowsToString(List<List<Object>> rows) {
@@ -332,15 +983,29 @@ public class ColumnIndexFiltering {
   }
 
   private void validateData(List<List<Object>> referenceRows, List<List<Object>> actualRows) {
-    // Using strings makes evaluation of test failures much easier, because the whole result set can be seen at the same time
-    String reference = rowsToString(referenceRows);
-    String actual = rowsToString(actualRows);
-    assertEquals(reference, actual);
+    String differences = ResultComparator.compare(referenceRows.iterator(), actualRows.iterator());
+    if (differences == null) {
+      return;
+    }
+    if (referenceRows.size() <= SMALL_RESULT_ROWS && actualRows.size() <= SMALL_RESULT_ROWS) {
+      // Using strings makes evaluation of test failures much easier, because the whole result set can be seen at the same time
+      assertEquals(differences, rowsToString(referenceRows), rowsToString(actualRows));
+    }
+    fail(differences);
+  }
+
+  private static FixtureCache createFixtureCache() {
+    try {
+      return fs == null ? null : FixtureCache.fromSystemProperties(fs, storage.getBaseDir(fs));
+    } catch (IOException e) {
+      LOGGER.error("Could not open the fixture cache, writing the fixtures for this run only.", e);
+      return null;
+    }
   }
 
   private static FileSystem getFileSystem() {
     try {
-      return new HDFSClient().getFileSystem();
+      return storage.getFileSystem();
     } catch (Exception e) {
       LOGGER.error("Could not get filesystem.", e);
       return null;
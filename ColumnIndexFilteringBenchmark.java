@@ -0,0 +1,140 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import static java.util.Arrays.asList;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.cloudera.cdh.test.common.Component;
+
+/**
+ * Measures the throughput of filtered scans with and without column index filtering for every
+ * {@link ColumnHelper} and every operator of the "all" preset.
+ *
+ * The fixture is written once per trial with the schema of {@link ColumnIndexFiltering} and the
+ * pattern of the test plan, scaled up to {@link #rows} rows and ordered by {@link #layout}; with the
+ * unordered test plan layout every page would hold every value, so the column indexes could not
+ * prune anything. A benchmark operation executes the query of
+ * {@link ColumnIndexFiltering#testFiltering()} for all reference values of the column through
+ * {@link LocalParquetClient}. The statistics and dictionary filters are always used, so only
+ * column index filtering is switched. Run {@link #main(String[])} to get the allocation rate as
+ * well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ColumnIndexFilteringBenchmark {
+  private static final String TABLE = "column_index_filtering_benchmark";
+
+  @Param({ "BOOLEAN", "INT32", "INT64", "INT96", "FLOAT", "DOUBLE", "FIXED", "BINARY", "UTF8",
+      "DECIMAL_IN_INT32", "DECIMAL_IN_INT64", "DECIMAL_IN_FIXED", "DECIMAL_IN_BINARY", "URL", "UUID_KEY" })
+  public String column;
+
+  @Param({ "=", "<", ">", "<=", ">=", "!=", "IS", "IS NOT" })
+  public String operator;
+
+  @Param({ "true", "false" })
+  public boolean columnIndexFiltering;
+
+  @Param({ "ASCENDING", "CLUSTERED" })
+  public String layout;
+
+  @Param({ "1000000" })
+  public long rows;
+
+  @Param({ "1000" })
+  public int pageRowCountLimit;
+
+  private java.nio.file.Path dir;
+  private LocalParquetClient client;
+  private List<String> queries;
+  private Set<LocalParquetClient.FilterLayer> layers;
+
+  @Setup(Level.Trial)
+  public void writeFixture() throws Exception {
+    List<ColumnHelper> columns = asList(ColumnHelper.values());
+    dir = Files.createTempDirectory(TABLE);
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Path location = fs.makeQualified(new Path(dir.toString()));
+    Configuration conf = new Configuration();
+    conf.setInt("parquet.page.row.count.limit", pageRowCountLimit);
+    DataGenerator generator =
+        DataGenerator.scaled(columns, 1, rows).withLayout(DataGenerator.Layout.valueOf(layout));
+    ColumnIndexFiltering.writeColumnarParquetFile(new Path(location, "0.parquet"), conf,
+        ColumnIndexFiltering.createParquetSchema(columns), generator, 0, CompressionCodecName.UNCOMPRESSED);
+
+    // The component is only used for deciding the supported types, which is not relevant here
+    client = new LocalParquetClient(Component.HIVE);
+    client.executeSqlUpdate(ColumnIndexFiltering.createTableStatement(TABLE, columns, location));
+
+    layers = EnumSet.allOf(LocalParquetClient.FilterLayer.class);
+    if (!columnIndexFiltering) {
+      layers.remove(LocalParquetClient.FilterLayer.COLUMN_INDEX);
+    }
+
+    ColumnHelper helper = ColumnHelper.valueOf(column);
+    String query = "SELECT id, %s FROM %s WHERE %s %s %s ORDER BY id";
+    String columnName = helper.getColumnName();
+    queries = new ArrayList<>();
+    if (operator.startsWith("IS")) {
+      queries.add(String.format(query, columnName, TABLE, columnName, operator, "NULL"));
+    } else {
+      for (Object refValue : helper.getValues().values) {
+        queries.add(String.format(query, columnName, TABLE, columnName, operator,
+            helper.valueToSqlLiteral(refValue)));
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteFixture() throws Exception {
+    client.executeSqlUpdate("DROP TABLE " + TABLE);
+    FileSystem.getLocal(new Configuration()).delete(new Path(dir.toString()), true);
+  }
+
+  @Benchmark
+  public void filteredScan(Blackhole blackhole) {
+    for (String query : queries) {
+      blackhole.consume(client.executeQuery(query, layers, new PageIoStats()));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder()
+        .include(ColumnIndexFilteringBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+}
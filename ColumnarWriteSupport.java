@@ -0,0 +1,91 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.MessageType;
+
+import com.cloudera.cdh.tests.parquet.columnindexfiltering.ColumnHelper.PrimitiveEncoder;
+
+/**
+ * Writes the rows of a {@link DataGenerator} directly into the {@link RecordConsumer} of parquet-mr.
+ *
+ * The reference values of the columns are converted to their primitive form only once, when the
+ * write support is created. Writing a row hands the primitive form to the {@link PrimitiveEncoder}
+ * of the column, so there is no boxing, no intermediate row objects, no per-value type dispatch and
+ * no allocation involved.
+ */
+class ColumnarWriteSupport extends WriteSupport<ColumnarWriteSupport.Row> {
+  /**
+   * A mutable pointer to the row to be written. A single instance is reused for all the rows.
+   */
+  static final class Row {
+    long index;
+  }
+
+  private final MessageType schema;
+  private final DataGenerator generator;
+  private final Nesting nesting;
+  private final String[] columnNames;
+  // The index of the first field of each column in the record
+  private final int[] fieldIndexes;
+  private final PrimitiveEncoder[] encoders;
+  // Indexed by column and then by value index
+  private final long[][] primitives;
+  private RecordConsumer consumer;
+
+  public ColumnarWriteSupport(MessageType schema, DataGenerator generator, Nesting nesting) {
+    this.schema = schema;
+    this.generator = generator;
+    this.nesting = nesting;
+    List<ColumnHelper> columns = generator.getColumns();
+    columnNames = new String[columns.size()];
+    fieldIndexes = new int[columns.size()];
+    encoders = new PrimitiveEncoder[columns.size()];
+    primitives = new long[columns.size()][];
+    for (int i = 0, n = columns.size(); i < n; ++i) {
+      ColumnHelper column = columns.get(i);
+      List<?> values = column.getValues().values;
+      columnNames[i] = column.getColumnName();
+      fieldIndexes[i] = schema.getFieldIndex(columnNames[i]);
+      encoders[i] = column.createPrimitiveEncoder();
+      primitives[i] = new long[values.size()];
+      for (int j = 0, m = values.size(); j < m; ++j) {
+        primitives[i][j] = column.valueToPrimitive(values.get(j));
+      }
+    }
+  }
+
+  @Override
+  public WriteContext init(Configuration configuration) {
+    return new WriteContext(schema, new HashMap<String, String>());
+  }
+
+  @Override
+  public void prepareForWrite(RecordConsumer recordConsumer) {
+    consumer = recordConsumer;
+  }
+
+  @Override
+  public void write(Row row) {
+    consumer.startMessage();
+    // First field is the ID
+    consumer.startField("id", 0);
+    int id = generator.getId(row.index);
+    consumer.addInteger(id);
+    consumer.endField("id", 0);
+    int valueIndex = generator.getValueIndex(row.index);
+    for (int i = 0; i < columnNames.length; ++i) {
+      if (valueIndex == DataGenerator.NULL_INDEX) {
+        nesting.writeNull(consumer, columnNames[i], fieldIndexes[i], id);
+      } else {
+        nesting.write(consumer, columnNames[i], fieldIndexes[i], encoders[i], primitives[i][valueIndex], id);
+      }
+    }
+    consumer.endMessage();
+  }
+}
@@ -0,0 +1,60 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import com.cloudera.cdh.test.common.Component;
+
+/**
+ * Limits the number of concurrent operations per component when the test runs in parallel.
+ *
+ * The limit of a component is read from the {@code columnindexfiltering.parallel.<component>}
+ * system property (e.g. {@code columnindexfiltering.parallel.hive}) and defaults to the number of
+ * threads of {@link ParallelParameterized}, or to at least {@link AsyncQueryDispatcher#DEFAULT_IN_FLIGHT}
+ * if the queries are pipelined, so that they actually overlap.
+ */
+final class ComponentThrottle {
+  static final String LIMIT_PROPERTY_PREFIX = "columnindexfiltering.parallel.";
+
+  private static final ConcurrentMap<Component, Semaphore> semaphores = new ConcurrentHashMap<>();
+
+  private ComponentThrottle() {
+  }
+
+  static <T> T call(Component component, Callable<T> callable) throws Exception {
+    acquire(component);
+    try {
+      return callable.call();
+    } finally {
+      release(component);
+    }
+  }
+
+  /**
+   * Takes one of the slots of the component, waiting while all of them are in use. The slot has to
+   * be given back by {@link #release(Component)}, possibly from another thread.
+   */
+  static void acquire(Component component) throws InterruptedException {
+    getSemaphore(component).acquire();
+  }
+
+  static void release(Component component) {
+    getSemaphore(component).release();
+  }
+
+  private static Semaphore getSemaphore(Component component) {
+    return semaphores.computeIfAbsent(component, c -> new Semaphore(getLimit(c), true));
+  }
+
+  static int getLimit(Component component) {
+    int threads = ParallelParameterized.getThreadCount();
+    int limit = Integer.getInteger(LIMIT_PROPERTY_PREFIX + component.name().toLowerCase(Locale.ROOT),
+        Boolean.getBoolean(ColumnIndexFiltering.ASYNC_PROPERTY)
+            ? Math.max(threads, AsyncQueryDispatcher.DEFAULT_IN_FLIGHT) : threads);
+    return Math.max(limit, 1);
+  }
+}
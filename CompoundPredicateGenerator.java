@@ -0,0 +1,98 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import static java.util.Arrays.asList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Generates the compound predicates of the filtering matrix over the reference values of the
+ * columns:
+ * <ul>
+ * <li>{@code BETWEEN}: ranges between neighbouring reference values and the whole range</li>
+ * <li>{@code IN}: lists of non-adjacent reference values and of all of them</li>
+ * <li>{@code AND}, {@code OR}: a comparison on the column combined with one on another column of
+ * the table, so that the row ranges of two column indexes are intersected or united</li>
+ * </ul>
+ */
+final class CompoundPredicateGenerator {
+  static final List<String> SHAPES = asList("BETWEEN", "IN", "AND", "OR");
+
+  private CompoundPredicateGenerator() {
+  }
+
+  static boolean isCompound(String shape) {
+    return SHAPES.contains(shape);
+  }
+
+  /**
+   * Returns the predicates of the shape for the column; {@code columns} are the columns of the
+   * table the second column of the multi-column shapes is chosen from, nested as specified.
+   */
+  static List<String> generate(String shape, ColumnHelper column, List<ColumnHelper> columns, Nesting nesting) {
+    List<String> literals = toLiterals(column);
+    String name = nesting.getReference(column);
+    List<String> predicates = new ArrayList<>();
+    switch (shape) {
+    case "BETWEEN":
+      for (int i = 0; i + 1 < literals.size(); ++i) {
+        predicates.add(String.format("%s BETWEEN %s AND %s", name, literals.get(i), literals.get(i + 1)));
+      }
+      predicates.add(String.format("%s BETWEEN %s AND %s", name, literals.get(0),
+          literals.get(literals.size() - 1)));
+      break;
+    case "IN":
+      predicates.add(String.format("%s IN (%s, %s)", name, literals.get(0), literals.get(2)));
+      predicates.add(String.format("%s IN (%s, %s)", name, literals.get(1), literals.get(3)));
+      StringJoiner all = new StringJoiner(", ");
+      for (String literal : literals) {
+        all.add(literal);
+      }
+      predicates.add(String.format("%s IN (%s)", name, all));
+      break;
+    case "AND":
+    case "OR":
+      ColumnHelper other = getPartner(column, columns);
+      List<String> otherLiterals = toLiterals(other);
+      String otherName = nesting.getReference(other);
+      for (int i = 0; i < literals.size(); ++i) {
+        // Equal value indexes select the same rows while different ones select disjoint rows
+        predicates.add(String.format("%s = %s %s %s = %s", name, literals.get(i), shape, otherName,
+            otherLiterals.get(i)));
+        predicates.add(String.format("%s = %s %s %s = %s", name, literals.get(i), shape, otherName,
+            otherLiterals.get((i + 1) % otherLiterals.size())));
+      }
+      predicates.add(String.format("%s >= %s %s %s <= %s", name, literals.get(1), shape, otherName,
+          otherLiterals.get(2)));
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown compound predicate shape: " + shape);
+    }
+    return predicates;
+  }
+
+  /**
+   * Returns the column following the specified one in the list, or the column itself if it is the
+   * only one.
+   */
+  static ColumnHelper getPartner(ColumnHelper column, List<ColumnHelper> columns) {
+    int index = columns.indexOf(column);
+    for (int i = 1, n = columns.size(); i < n; ++i) {
+      ColumnHelper candidate = columns.get((index + i) % n);
+      if (candidate != column) {
+        return candidate;
+      }
+    }
+    return column;
+  }
+
+  private static List<String> toLiterals(ColumnHelper column) {
+    List<String> literals = new ArrayList<>();
+    for (Object value : column.getValues().values) {
+      literals.add(column.valueToSqlLiteral(value));
+    }
+    return literals;
+  }
+}
@@ -0,0 +1,107 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.util.Optional;
+import java.util.PrimitiveIterator;
+
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.page.DataPage;
+import org.apache.parquet.column.page.DictionaryPage;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.column.page.PageReader;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnPath;
+import org.apache.parquet.internal.column.columnindex.OffsetIndex;
+import org.apache.parquet.internal.filter2.columnindex.ColumnIndexStore.MissingOffsetIndexException;
+
+/**
+ * Counts the pages handed out to the column readers in {@link PageIoStats}.
+ *
+ * The pages are already decompressed when they are handed out, and the decompressed pages report
+ * their uncompressed size as the compressed one. The compressed size of a data page is therefore
+ * taken from the offset index of its column chunk, and the one of the dictionary page from the gap
+ * between the start of the chunk and its first data page. Both include the page headers. Without an
+ * offset index the size reported by the page is used.
+ */
+class CountingPageReadStore implements PageReadStore {
+  private final PageReadStore delegate;
+  private final FileColumnIndexStore indexes;
+  private final PageIoStats stats;
+
+  CountingPageReadStore(PageReadStore delegate, FileColumnIndexStore indexes, PageIoStats stats) {
+    this.delegate = delegate;
+    this.indexes = indexes;
+    this.stats = stats;
+  }
+
+  @Override
+  public PageReader getPageReader(ColumnDescriptor descriptor) {
+    final PageReader pageReader = delegate.getPageReader(descriptor);
+    final String column = String.join(".", descriptor.getPath());
+    final ColumnPath path = ColumnPath.get(descriptor.getPath());
+    final ColumnChunkMetaData chunk = indexes.getChunk(path);
+    final OffsetIndex offsetIndex = getOffsetIndex(path);
+    return new PageReader() {
+      // The index of the next page in the offset index; filtered pages are skipped by row index
+      private int pageIndex;
+
+      @Override
+      public DictionaryPage readDictionaryPage() {
+        DictionaryPage page = pageReader.readDictionaryPage();
+        if (page != null) {
+          long compressedSize = offsetIndex == null || offsetIndex.getPageCount() == 0
+              ? page.getCompressedSize() : offsetIndex.getOffset(0) - chunk.getStartingPos();
+          stats.addDictionaryPageRead(compressedSize, page.getUncompressedSize());
+        }
+        return page;
+      }
+
+      @Override
+      public long getTotalValueCount() {
+        return pageReader.getTotalValueCount();
+      }
+
+      @Override
+      public DataPage readPage() {
+        DataPage page = pageReader.readPage();
+        if (page != null) {
+          stats.addPageRead(column, getCompressedSize(page), page.getUncompressedSize());
+        }
+        return page;
+      }
+
+      private long getCompressedSize(DataPage page) {
+        if (offsetIndex == null) {
+          return page.getCompressedSize();
+        }
+        Optional<Long> firstRowIndex = page.getFirstRowIndex();
+        if (firstRowIndex.isPresent()) {
+          while (pageIndex < offsetIndex.getPageCount() - 1
+              && offsetIndex.getFirstRowIndex(pageIndex) < firstRowIndex.get()) {
+            ++pageIndex;
+          }
+        }
+        return offsetIndex.getCompressedPageSize(pageIndex++);
+      }
+    };
+  }
+
+  private OffsetIndex getOffsetIndex(ColumnPath path) {
+    try {
+      return indexes.getOffsetIndex(path);
+    } catch (MissingOffsetIndexException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public long getRowCount() {
+    return delegate.getRowCount();
+  }
+
+  @Override
+  public Optional<PrimitiveIterator.OfLong> getRowIndexes() {
+    // Required for synchronizing the column readers when pages are filtered
+    return delegate.getRowIndexes();
+  }
+}
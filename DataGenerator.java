@@ -0,0 +1,271 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.cloudera.cdh.tests.parquet.columnindexfiltering.ColumnHelper.TestValues;
+
+/**
+ * Generates the values of the test plan without holding them in memory.
+ *
+ * Every column follows the same pattern of the four reference values (a, b, c, d) returned by
+ * {@link ColumnHelper#getValues()} and NULLs. With the default geometry the generated data is the
+ * 23 rows in three files described in the test plan; larger geometries repeat the same pattern
+ * over any number of rows and files, so memory usage does not depend on the size of the data.
+ *
+ * The {@link Layout} decides the order of the non-NULL values; NULLs are always at the positions
+ * of the test plan pattern.
+ */
+class DataGenerator {
+  public static final int NULL_INDEX = -1;
+
+  /**
+   * The order of the reference values over the rows of the table. The reference values of every
+   * column are in ascending order, so the sorted layouts produce column indexes with an ASCENDING
+   * or DESCENDING boundary order.
+   */
+  enum Layout {
+    /**
+     * The unordered pattern of the test plan.
+     */
+    TEST_PLAN,
+    /**
+     * The table split into four equal ranges of a, b, c and d.
+     */
+    ASCENDING,
+    /**
+     * The table split into four equal ranges of d, c, b and a.
+     */
+    DESCENDING,
+    /**
+     * Ascending with {@link DataGenerator#CLUSTERED_NOISE} of the rows holding random values, so
+     * most pages still contain a single value but the pages are not sorted any more.
+     */
+    CLUSTERED,
+    /**
+     * Random values, so nearly every page contains every value.
+     */
+    RANDOM
+  }
+
+  static final double CLUSTERED_NOISE = 0.01;
+  private static final int VALUE_COUNT = 4;
+
+  private static final int N = NULL_INDEX;
+  // Indexes into the reference values of the columns, file by file, as in the test plan.
+  private static final int[][] TEST_PLAN = {
+      {
+          0, 1, 2,
+          1, 2, 3,
+          N },
+      {
+          N, 2, 3,
+          N, N, N,
+          0, 2, N },
+      {
+          1, N, 3,
+          0, N, 0,
+          1 } };
+  private static final int[] PATTERN = concat(TEST_PLAN);
+
+  private final List<ColumnHelper> columns;
+  private final long[] rowCounts;
+  private final long[] firstRows;
+  private final long totalRowCount;
+  private final Layout layout;
+
+  private DataGenerator(List<ColumnHelper> columns, long[] rowCounts) {
+    this(columns, rowCounts, Layout.TEST_PLAN);
+  }
+
+  private DataGenerator(List<ColumnHelper> columns, long[] rowCounts, Layout layout) {
+    this.columns = columns;
+    this.rowCounts = rowCounts;
+    this.layout = layout;
+    firstRows = new long[rowCounts.length];
+    long rows = 0;
+    for (int fileNo = 0; fileNo < rowCounts.length; ++fileNo) {
+      firstRows[fileNo] = rows;
+      rows += rowCounts[fileNo];
+    }
+    // IDs are stored in an INT32 column
+    if (rows > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many rows for INT32 ids: " + rows);
+    }
+    totalRowCount = rows;
+  }
+
+  /**
+   * The data described in the test plan: 23 rows in 3 files.
+   */
+  public static DataGenerator forTestPlan(List<ColumnHelper> columns) {
+    long[] rowCounts = new long[TEST_PLAN.length];
+    for (int fileNo = 0; fileNo < TEST_PLAN.length; ++fileNo) {
+      rowCounts[fileNo] = TEST_PLAN[fileNo].length;
+    }
+    return new DataGenerator(columns, rowCounts);
+  }
+
+  /**
+   * The pattern of the test plan repeated over {@code fileCount} files of {@code rowsPerFile} rows
+   * each.
+   */
+  public static DataGenerator scaled(List<ColumnHelper> columns, int fileCount, long rowsPerFile) {
+    if (fileCount <= 0 || rowsPerFile <= 0) {
+      throw new IllegalArgumentException(
+          String.format("Invalid geometry: %d files of %d rows", fileCount, rowsPerFile));
+    }
+    long[] rowCounts = new long[fileCount];
+    for (int fileNo = 0; fileNo < fileCount; ++fileNo) {
+      rowCounts[fileNo] = rowsPerFile;
+    }
+    return new DataGenerator(columns, rowCounts);
+  }
+
+  /**
+   * Returns a generator of the same geometry with the values ordered by the layout.
+   */
+  public DataGenerator withLayout(Layout layout) {
+    return new DataGenerator(columns, rowCounts, layout);
+  }
+
+  public Layout getLayout() {
+    return layout;
+  }
+
+  public List<ColumnHelper> getColumns() {
+    return columns;
+  }
+
+  public int getFileCount() {
+    return rowCounts.length;
+  }
+
+  public long getRowCount(int fileNo) {
+    return rowCounts[fileNo];
+  }
+
+  public long getTotalRowCount() {
+    return totalRowCount;
+  }
+
+  /**
+   * The index of the first row of the file counted from the beginning of the table.
+   */
+  public long getFirstRow(int fileNo) {
+    return firstRows[fileNo];
+  }
+
+  /**
+   * IDs start from 1 and are continuous between files.
+   */
+  public int getId(long row) {
+    return (int) (row + 1);
+  }
+
+  /**
+   * Returns the index of the reference value in the specified row of the table or
+   * {@link #NULL_INDEX} for NULL.
+   */
+  public int getValueIndex(long row) {
+    int patternIndex = PATTERN[(int) (row % PATTERN.length)];
+    if (patternIndex == NULL_INDEX) {
+      return NULL_INDEX;
+    }
+    switch (layout) {
+    case ASCENDING:
+      return getSortedIndex(row);
+    case DESCENDING:
+      return VALUE_COUNT - 1 - getSortedIndex(row);
+    case CLUSTERED:
+      long hash = mix(row);
+      // The lower bits decide whether the row is noise, the higher ones give the random value
+      if ((hash & 0xFFFFFF) < CLUSTERED_NOISE * 0x1000000) {
+        return (int) ((hash >>> 32) % VALUE_COUNT);
+      }
+      return getSortedIndex(row);
+    case RANDOM:
+      return (int) ((mix(row) >>> 32) % VALUE_COUNT);
+    default:
+      return patternIndex;
+    }
+  }
+
+  private int getSortedIndex(long row) {
+    return (int) (row * VALUE_COUNT / totalRowCount);
+  }
+
+  /**
+   * The finalizer of SplitMix64, so that the random layouts are reproducible without keeping any
+   * state.
+   */
+  private static long mix(long value) {
+    long z = value + 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  public Object getValue(ColumnHelper column, long row) {
+    int index = getValueIndex(row);
+    return index == NULL_INDEX ? null : column.getValues().values.get(index);
+  }
+
+  /**
+   * Lazily generates the rows of the file with the ID as the first value followed by the values
+   * of the columns.
+   */
+  public Iterator<List<Object>> rows(int fileNo) {
+    final long first = firstRows[fileNo];
+    final long end = first + rowCounts[fileNo];
+    final List<TestValues<?>> values = new ArrayList<>();
+    for (ColumnHelper column : columns) {
+      values.add(column.getValues());
+    }
+    return new Iterator<List<Object>>() {
+      private long row = first;
+
+      @Override
+      public boolean hasNext() {
+        return row < end;
+      }
+
+      @Override
+      public List<Object> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        int index = getValueIndex(row);
+        List<Object> valuesInRow = new ArrayList<>(values.size() + 1);
+        valuesInRow.add(getId(row));
+        for (TestValues<?> v : values) {
+          valuesInRow.add(index == NULL_INDEX ? null : v.values.get(index));
+        }
+        ++row;
+        return valuesInRow;
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d rows in %d files (%s)", totalRowCount, rowCounts.length, layout);
+  }
+
+  private static int[] concat(int[][] arrays) {
+    int length = 0;
+    for (int[] array : arrays) {
+      length += array.length;
+    }
+    int[] result = new int[length];
+    int pos = 0;
+    for (int[] array : arrays) {
+      System.arraycopy(array, 0, result, pos, array.length);
+      pos += array.length;
+    }
+    return result;
+  }
+}
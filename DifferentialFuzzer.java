@@ -0,0 +1,603 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import static java.util.Arrays.asList;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroup;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.schema.LogicalTypeAnnotation.DecimalLogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudera.cdh.test.common.Component;
+
+/**
+ * Differential fuzzing of the filtering of parquet-mr. Random values of the {@link ColumnHelper}
+ * types, including their edge cases (NaN, -0.0, infinities, empty strings, strings longer than the
+ * truncate length, decimals at the limit of their precision, ...), are written to small files in
+ * memory with random page and row group geometries. Random predicates are then evaluated by
+ * {@link LocalParquetClient} with and without pushdown; as the WHERE clause is evaluated on every
+ * returned row, any difference means that pruning dropped matching rows.
+ *
+ * Cases run in parallel on all cores. A case is determined by its seed, so a failure can be
+ * reproduced by running the single case with {@value #SEED_PROPERTY} set to its seed. Failing cases
+ * are shrunk by removing predicate operands, unused columns and rows for as long as they keep
+ * failing, and the minimal file is written to {@value #DIR_PROPERTY}.
+ */
+class DifferentialFuzzer {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DifferentialFuzzer.class);
+
+  static final String SEED_PROPERTY = "columnindexfiltering.fuzz.seed";
+  static final String CASES_PROPERTY = "columnindexfiltering.fuzz.cases";
+  static final String SECONDS_PROPERTY = "columnindexfiltering.fuzz.seconds";
+  static final String THREADS_PROPERTY = "columnindexfiltering.fuzz.threads";
+  static final String MAX_ROWS_PROPERTY = "columnindexfiltering.fuzz.max.rows";
+  static final String MAX_FAILURES_PROPERTY = "columnindexfiltering.fuzz.max.failures";
+  static final String DIR_PROPERTY = "columnindexfiltering.fuzz.dir";
+
+  private static final String[] OPERATORS = { "=", "!=", "<", ">", "<=", ">=" };
+  // Characters whose UTF-16 order is the same as the unsigned byte order of their UTF-8 encoding,
+  // which Parquet uses; characters from U+E000 to U+FFFF would sort differently against the
+  // supplementary ones
+  private static final String[] CHARACTERS =
+      { "\u0000", "\u007f", "A", "Z", "a", "b", "z", "\u00e9", "\u0100", "\u07ff", "\u0800", "\ud83d\ude00" };
+  // Single byte characters for the FIXED column
+  private static final String[] ASCII_CHARACTERS = { "\u0000", "\u007f", "A", "Z", "a", "z" };
+  // Longer than the default truncate length of the min/max values in the column indexes
+  private static final String LONG_PREFIX = new String(new char[80]).replace('\0', 'x');
+  private static final double[] NULL_RATIOS = { 0, 0.1, 0.5, 1 };
+  private static final int[] ROW_GROUP_SIZES = { 1024, 16 * 1024, ParquetWriter.DEFAULT_BLOCK_SIZE };
+  // Timestamps between 1900 and 2100
+  private static final long MIN_MILLIS = -2208988800000L;
+  private static final long MILLIS_RANGE = 6311433600000L;
+
+  /**
+   * A file and a predicate to be checked.
+   */
+  static final class FuzzCase {
+    private final long seed;
+    private final List<ColumnHelper> columns;
+    // The values of the columns by row; the ID of a row is its index
+    private final List<List<Object>> rows;
+    private final int pageRowCountLimit;
+    private final boolean dictionary;
+    private final int rowGroupSize;
+    private final FilterExpression predicate;
+
+    FuzzCase(long seed, List<ColumnHelper> columns, List<List<Object>> rows, int pageRowCountLimit,
+        boolean dictionary, int rowGroupSize, FilterExpression predicate) {
+      this.seed = seed;
+      this.columns = columns;
+      this.rows = rows;
+      this.pageRowCountLimit = pageRowCountLimit;
+      this.dictionary = dictionary;
+      this.rowGroupSize = rowGroupSize;
+      this.predicate = predicate;
+    }
+
+    FuzzCase withPredicate(FilterExpression predicate) {
+      return new FuzzCase(seed, columns, rows, pageRowCountLimit, dictionary, rowGroupSize, predicate);
+    }
+
+    FuzzCase withDictionary(boolean dictionary) {
+      return new FuzzCase(seed, columns, rows, pageRowCountLimit, dictionary, rowGroupSize, predicate);
+    }
+
+    FuzzCase withoutColumn(int index) {
+      List<ColumnHelper> newColumns = new ArrayList<>(columns);
+      newColumns.remove(index);
+      List<List<Object>> newRows = new ArrayList<>(rows.size());
+      for (List<Object> row : rows) {
+        List<Object> newRow = new ArrayList<>(row);
+        newRow.remove(index);
+        newRows.add(newRow);
+      }
+      return new FuzzCase(seed, newColumns, newRows, pageRowCountLimit, dictionary, rowGroupSize, predicate);
+    }
+
+    FuzzCase withoutRows(int from, int to) {
+      List<List<Object>> newRows = new ArrayList<>(rows.subList(0, from));
+      newRows.addAll(rows.subList(to, rows.size()));
+      return new FuzzCase(seed, columns, newRows, pageRowCountLimit, dictionary, rowGroupSize, predicate);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("seed %d: %d rows of %s, rows/page=%d, dictionary=%b, row group bytes=%d, WHERE %s",
+          seed, rows.size(), columns, pageRowCountLimit, dictionary, rowGroupSize, predicate);
+    }
+  }
+
+  private final LocalParquetClient client;
+  private final long seed;
+  private final long cases;
+  private final long seconds;
+  private final int threads;
+  private final int maxRows;
+  private final int maxFailures;
+  private final Path dir;
+  private final Queue<String> failures = new ConcurrentLinkedQueue<>();
+
+  DifferentialFuzzer(long seed, long cases, long seconds, int threads, int maxRows, int maxFailures, Path dir) {
+    // The component only limits the types of the test matrix; every type is fuzzed
+    this.client = new LocalParquetClient(Component.SPARK);
+    this.seed = seed;
+    this.cases = cases;
+    this.seconds = seconds;
+    this.threads = threads;
+    this.maxRows = maxRows;
+    this.maxFailures = maxFailures;
+    this.dir = dir;
+  }
+
+  static DifferentialFuzzer fromSystemProperties() {
+    long seconds = Long.getLong(SECONDS_PROPERTY, 0);
+    return new DifferentialFuzzer(
+        Long.getLong(SEED_PROPERTY, System.nanoTime()),
+        Long.getLong(CASES_PROPERTY, seconds > 0 ? Long.MAX_VALUE : 10_000),
+        seconds,
+        Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+        Integer.getInteger(MAX_ROWS_PROPERTY, 1000),
+        Integer.getInteger(MAX_FAILURES_PROPERTY, 10),
+        Paths.get(System.getProperty(DIR_PROPERTY, System.getProperty("java.io.tmpdir"))));
+  }
+
+  /**
+   * Runs the cases until their number or the time limit is reached and returns the descriptions of
+   * the failures.
+   */
+  List<String> run() throws Exception {
+    LOGGER.info("Fuzzing with seed {} on {} thread(s).", seed, threads);
+    AtomicLong next = new AtomicLong();
+    AtomicLong done = new AtomicLong();
+    AtomicLong invalid = new AtomicLong();
+    long start = System.nanoTime();
+    long deadline = seconds > 0 ? start + TimeUnit.SECONDS.toNanos(seconds) : 0;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < threads; ++i) {
+        futures.add(executor.submit(() -> {
+          for (long caseNo = next.getAndIncrement(); caseNo < cases; caseNo = next.getAndIncrement()) {
+            if ((deadline != 0 && System.nanoTime() - deadline > 0) || failures.size() >= maxFailures) {
+              break;
+            }
+            if (!runCase(seed + caseNo)) {
+              invalid.incrementAndGet();
+            }
+            done.incrementAndGet();
+          }
+          return null;
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    double elapsed = Math.max(System.nanoTime() - start, 1) / 1e9;
+    LOGGER.info("Checked {} cases ({} invalid) in {} s, {} cases/h; {} failure(s).", done.get(), invalid.get(),
+        String.format("%.1f", elapsed), String.format("%.0f", done.get() / elapsed * 3600), failures.size());
+    return new ArrayList<>(failures);
+  }
+
+  /**
+   * Checks the case and reports it if pushdown makes a difference. Returns {@code false} if the
+   * case is invalid, i.e. it can not even be written and read without pushdown.
+   */
+  private boolean runCase(long caseSeed) throws IOException {
+    FuzzCase fuzzCase = generate(caseSeed);
+    InMemoryOutputFile file;
+    List<List<Object>> expected;
+    try {
+      file = write(fuzzCase);
+      expected = read(fuzzCase, file, EnumSet.noneOf(LocalParquetClient.FilterLayer.class));
+    } catch (RuntimeException | IOException e) {
+      LOGGER.warn("Skipping the case of seed {}, it can not be read without pushdown: {}", caseSeed, e.toString());
+      return false;
+    }
+    String difference =
+        findDifference(fuzzCase, file, EnumSet.allOf(LocalParquetClient.FilterLayer.class), expected);
+    if (difference != null) {
+      report(fuzzCase, difference);
+    }
+    return true;
+  }
+
+  static FuzzCase generate(long seed, int maxRows) {
+    SplittableRandom random = new SplittableRandom(seed);
+    List<ColumnHelper> all = asList(ColumnHelper.values());
+    List<ColumnHelper> columns = new ArrayList<>();
+    for (int count = 1 + random.nextInt(3); columns.size() < count;) {
+      ColumnHelper column = all.get(random.nextInt(all.size()));
+      if (!columns.contains(column)) {
+        columns.add(column);
+      }
+    }
+    int rowCount = 1 + random.nextInt(maxRows);
+    List<List<Object>> columnValues = new ArrayList<>();
+    for (ColumnHelper column : columns) {
+      columnValues.add(generateColumn(column, rowCount, random));
+    }
+    List<List<Object>> rows = new ArrayList<>(rowCount);
+    for (int i = 0; i < rowCount; ++i) {
+      List<Object> row = new ArrayList<>(columns.size());
+      for (List<Object> values : columnValues) {
+        row.add(values.get(i));
+      }
+      rows.add(row);
+    }
+    return new FuzzCase(seed, columns, rows, 1 + random.nextInt(64), random.nextBoolean(),
+        ROW_GROUP_SIZES[random.nextInt(ROW_GROUP_SIZES.length)], randomPredicate(columns, columnValues, random, 2));
+  }
+
+  private FuzzCase generate(long caseSeed) {
+    return generate(caseSeed, maxRows);
+  }
+
+  private static List<Object> generateColumn(ColumnHelper column, int rowCount, SplittableRandom random) {
+    // Few distinct values, so that equalities match and dictionaries are used
+    List<Object> distinctValues = new ArrayList<>();
+    for (int i = 0, n = 1 + random.nextInt(32); i < n; ++i) {
+      distinctValues.add(randomValue(column, random));
+    }
+    double nullRatio = NULL_RATIOS[random.nextInt(NULL_RATIOS.length)];
+    List<Object> values = new ArrayList<>(rowCount);
+    for (int i = 0; i < rowCount; ++i) {
+      values.add(random.nextDouble() < nullRatio ? null : distinctValues.get(random.nextInt(distinctValues.size())));
+    }
+    // Sorted values give ascending or descending boundary orders
+    switch (random.nextInt(3)) {
+    case 0:
+      sortNonNulls(values, false);
+      break;
+    case 1:
+      sortNonNulls(values, true);
+      break;
+    default:
+      break;
+    }
+    return values;
+  }
+
+  private static void sortNonNulls(List<Object> values, boolean descending) {
+    List<Object> nonNulls = new ArrayList<>();
+    for (Object value : values) {
+      if (value != null) {
+        nonNulls.add(value);
+      }
+    }
+    nonNulls.sort(descending ? (a, b) -> FilterExpression.compareValues(b, a) : FilterExpression::compareValues);
+    for (int i = 0, j = 0, n = values.size(); i < n; ++i) {
+      if (values.get(i) != null) {
+        values.set(i, nonNulls.get(j++));
+      }
+    }
+  }
+
+  /**
+   * Returns a random value of the column; every fourth value is one of the edge cases of the type.
+   */
+  static Object randomValue(ColumnHelper column, SplittableRandom random) {
+    boolean edge = random.nextInt(4) == 0;
+    switch (column) {
+    case BOOLEAN:
+      return random.nextBoolean();
+    case INT32:
+      if (edge) {
+        return pick(random, Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE);
+      }
+      return random.nextBoolean() ? random.nextInt() : random.nextInt(-100, 100);
+    case INT64:
+      if (edge) {
+        return pick(random, Long.MIN_VALUE, -1L, 0L, 1L, Long.MAX_VALUE);
+      }
+      return random.nextBoolean() ? random.nextLong() : random.nextLong(-100, 100);
+    case INT96:
+      // Whole milliseconds as the values are DateTimes; INT96 predicates are not pushed down
+      if (edge) {
+        return pick(random, new DateTime(0), new DateTime(-1), new DateTime(MIN_MILLIS),
+            new DateTime(MIN_MILLIS + MILLIS_RANGE));
+      }
+      return new DateTime(MIN_MILLIS + (long) (random.nextDouble() * MILLIS_RANGE));
+    case FLOAT:
+      if (edge) {
+        return pick(random, Float.NaN, -0.0f, 0.0f, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY,
+            -Float.MIN_VALUE, Float.MIN_VALUE, -Float.MAX_VALUE, Float.MAX_VALUE);
+      }
+      return random.nextBoolean() ? Float.intBitsToFloat(random.nextInt()) : random.nextInt(-100, 100) / 4.0f;
+    case DOUBLE:
+      if (edge) {
+        return pick(random, Double.NaN, -0.0, 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+            -Double.MIN_VALUE, Double.MIN_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE);
+      }
+      return random.nextBoolean() ? Double.longBitsToDouble(random.nextLong()) : random.nextInt(-100, 100) / 4.0;
+    case FIXED:
+      StringBuilder fixed = new StringBuilder();
+      for (int i = 0; i < 3; ++i) {
+        fixed.append(ASCII_CHARACTERS[random.nextInt(ASCII_CHARACTERS.length)]);
+      }
+      return fixed.toString();
+    case BINARY:
+    case UTF8:
+    case URL:
+    case UUID_KEY:
+      if (edge) {
+        return pick(random, "", "\u0000", LONG_PREFIX, LONG_PREFIX + "\ud83d\ude00");
+      }
+      StringBuilder string = new StringBuilder(random.nextInt(4) == 0 ? LONG_PREFIX : "");
+      for (int i = 0, n = random.nextInt(8); i < n; ++i) {
+        string.append(CHARACTERS[random.nextInt(CHARACTERS.length)]);
+      }
+      return string.toString();
+    case DECIMAL_IN_INT32:
+    case DECIMAL_IN_INT64:
+    case DECIMAL_IN_FIXED:
+    case DECIMAL_IN_BINARY:
+      DecimalLogicalTypeAnnotation decimal =
+          (DecimalLogicalTypeAnnotation) column.getSchema().getLogicalTypeAnnotation();
+      return randomDecimal(random, decimal.getPrecision(), decimal.getScale(), edge);
+    default:
+      throw new IllegalArgumentException("No random values for " + column);
+    }
+  }
+
+  private static BigDecimal randomDecimal(SplittableRandom random, int precision, int scale, boolean edge) {
+    BigInteger max = BigInteger.TEN.pow(precision).subtract(BigInteger.ONE);
+    if (edge) {
+      return new BigDecimal(pick(random, max.negate(), BigInteger.ONE.negate(), BigInteger.ZERO, BigInteger.ONE, max),
+          scale);
+    }
+    StringBuilder digits = new StringBuilder(random.nextBoolean() ? "-" : "");
+    for (int i = 0, n = 1 + random.nextInt(precision); i < n; ++i) {
+      digits.append((char) ('0' + random.nextInt(10)));
+    }
+    return new BigDecimal(new BigInteger(digits.toString()), scale);
+  }
+
+  @SafeVarargs
+  private static <T> T pick(SplittableRandom random, T... values) {
+    return values[random.nextInt(values.length)];
+  }
+
+  private static FilterExpression randomPredicate(List<ColumnHelper> columns, List<List<Object>> columnValues,
+      SplittableRandom random, int depth) {
+    if (depth > 0 && random.nextInt(3) == 0) {
+      FilterExpression left = randomPredicate(columns, columnValues, random, depth - 1);
+      FilterExpression right = randomPredicate(columns, columnValues, random, depth - 1);
+      return random.nextBoolean() ? FilterExpression.and(left, right) : FilterExpression.or(left, right);
+    }
+    int index = random.nextInt(columns.size());
+    ColumnHelper column = columns.get(index);
+    List<Object> values = columnValues.get(index);
+    switch (random.nextInt(8)) {
+    case 0:
+      return FilterExpression.isNull(column, random.nextBoolean());
+    case 1:
+      return FilterExpression.between(column, randomLiteral(column, values, random),
+          randomLiteral(column, values, random));
+    case 2:
+      List<Object> list = new ArrayList<>();
+      for (int i = 0, n = 1 + random.nextInt(3); i < n; ++i) {
+        list.add(randomLiteral(column, values, random));
+      }
+      return FilterExpression.in(column, list);
+    default:
+      String operator = column == ColumnHelper.BOOLEAN ? pick(random, "=", "!=") : pick(random, OPERATORS);
+      return FilterExpression.comparison(column, operator, randomLiteral(column, values, random));
+    }
+  }
+
+  private static Object randomLiteral(ColumnHelper column, List<Object> values, SplittableRandom random) {
+    // Mostly values of the column, so that the predicates hit the page boundaries
+    Object value = values.get(random.nextInt(values.size()));
+    return value != null && random.nextInt(4) != 0 ? value : randomValue(column, random);
+  }
+
+  static InMemoryOutputFile write(FuzzCase fuzzCase) throws IOException {
+    MessageType schema = ColumnIndexFiltering.createParquetSchema(fuzzCase.columns);
+    InMemoryOutputFile file = new InMemoryOutputFile(String.format("fuzz_%d.parquet", fuzzCase.seed));
+    try (ParquetWriter<Group> writer = ExampleParquetWriter.builder(file)
+        .withType(schema)
+        .withPageRowCountLimit(fuzzCase.pageRowCountLimit)
+        .withDictionaryEncoding(fuzzCase.dictionary)
+        .withRowGroupSize(fuzzCase.rowGroupSize)
+        .build()) {
+      for (int id = 0, n = fuzzCase.rows.size(); id < n; ++id) {
+        Group group = new SimpleGroup(schema);
+        group.add(0, id);
+        List<Object> row = fuzzCase.rows.get(id);
+        for (int i = 0, m = row.size(); i < m; ++i) {
+          if (row.get(i) != null) {
+            ColumnIndexFiltering.addValueToGroup(group, i + 1,
+                fuzzCase.columns.get(i).valueToFileFormatValue(row.get(i)));
+          }
+        }
+        writer.write(group);
+      }
+    }
+    return file;
+  }
+
+  private List<List<Object>> read(FuzzCase fuzzCase, InMemoryOutputFile file,
+      Set<LocalParquetClient.FilterLayer> layers) {
+    Map<String, ColumnHelper> columns = new HashMap<>();
+    List<String> selected = new ArrayList<>();
+    selected.add("id");
+    // Every column is read, so that skipping pages of the other columns is checked as well
+    for (ColumnHelper column : fuzzCase.columns) {
+      columns.put(column.getColumnName(), column);
+      selected.add(column.getColumnName());
+    }
+    LocalQuery query = LocalQuery.select(selected, fuzzCase.predicate, "id");
+    return client.executeQuery(query, columns, Nesting.FLAT, Collections.singletonList(file.toInputFile()),
+        layers, new PageIoStats());
+  }
+
+  /**
+   * Returns the difference of the rows read with pushdown to the specified layers from the expected
+   * rows or {@code null} if they are the same.
+   */
+  private String findDifference(FuzzCase fuzzCase, InMemoryOutputFile file,
+      Set<LocalParquetClient.FilterLayer> layers, List<List<Object>> expected) {
+    List<List<Object>> actual;
+    try {
+      actual = read(fuzzCase, file, layers);
+    } catch (RuntimeException e) {
+      return "reading with pushdown failed: " + e;
+    }
+    if (actual.equals(expected)) {
+      return null;
+    }
+    List<Object> expectedIds = getIds(expected);
+    List<Object> actualIds = getIds(actual);
+    List<Object> missing = new ArrayList<>(expectedIds);
+    missing.removeAll(actualIds);
+    List<Object> unexpected = new ArrayList<>(actualIds);
+    unexpected.removeAll(expectedIds);
+    return String.format("expected %d rows, got %d; missing IDs: %s, unexpected IDs: %s", expected.size(),
+        actual.size(), missing, unexpected);
+  }
+
+  private static List<Object> getIds(List<List<Object>> rows) {
+    List<Object> ids = new ArrayList<>(rows.size());
+    for (List<Object> row : rows) {
+      ids.add(row.get(0));
+    }
+    return ids;
+  }
+
+  private boolean fails(FuzzCase fuzzCase) {
+    try {
+      InMemoryOutputFile file = write(fuzzCase);
+      List<List<Object>> expected = read(fuzzCase, file, EnumSet.noneOf(LocalParquetClient.FilterLayer.class));
+      return findDifference(fuzzCase, file, EnumSet.allOf(LocalParquetClient.FilterLayer.class), expected) != null;
+    } catch (RuntimeException | IOException e) {
+      // Not a valid case anymore
+      return false;
+    }
+  }
+
+  /**
+   * Simplifies the failing case for as long as it keeps failing.
+   */
+  FuzzCase shrink(FuzzCase failing) {
+    FuzzCase current = failing;
+    boolean progress = true;
+    while (progress) {
+      progress = false;
+      for (FuzzCase candidate : simplifications(current)) {
+        if (fails(candidate)) {
+          current = candidate;
+          progress = true;
+          break;
+        }
+      }
+      if (!progress) {
+        FuzzCase fewerRows = removeRows(current);
+        progress = fewerRows != current;
+        current = fewerRows;
+      }
+    }
+    return current;
+  }
+
+  private static List<FuzzCase> simplifications(FuzzCase fuzzCase) {
+    List<FuzzCase> candidates = new ArrayList<>();
+    for (FilterExpression operand : fuzzCase.predicate.getOperands()) {
+      candidates.add(fuzzCase.withPredicate(operand));
+    }
+    Set<ColumnHelper> referenced = fuzzCase.predicate.getColumns();
+    for (int i = 0, n = fuzzCase.columns.size(); i < n; ++i) {
+      if (!referenced.contains(fuzzCase.columns.get(i))) {
+        candidates.add(fuzzCase.withoutColumn(i));
+      }
+    }
+    if (fuzzCase.dictionary) {
+      candidates.add(fuzzCase.withDictionary(false));
+    }
+    return candidates;
+  }
+
+  /**
+   * Removes ranges of rows, halving their length down to single rows.
+   */
+  private FuzzCase removeRows(FuzzCase fuzzCase) {
+    FuzzCase current = fuzzCase;
+    for (int length = Math.max(current.rows.size() / 2, 1); length >= 1; length /= 2) {
+      for (int from = 0; from < current.rows.size();) {
+        int to = Math.min(from + length, current.rows.size());
+        FuzzCase candidate = to - from < current.rows.size() ? current.withoutRows(from, to) : null;
+        if (candidate != null && fails(candidate)) {
+          current = candidate;
+        } else {
+          from += length;
+        }
+      }
+    }
+    return current;
+  }
+
+  private void report(FuzzCase failing, String difference) throws IOException {
+    FuzzCase minimal = shrink(failing);
+    InMemoryOutputFile file = write(minimal);
+    List<List<Object>> expected = read(minimal, file, EnumSet.noneOf(LocalParquetClient.FilterLayer.class));
+    // The filtering mechanisms failing on their own
+    List<LocalParquetClient.FilterLayer> failingLayers = new ArrayList<>();
+    for (LocalParquetClient.FilterLayer layer : LocalParquetClient.FilterLayer.values()) {
+      if (findDifference(minimal, file, EnumSet.of(layer), expected) != null) {
+        failingLayers.add(layer);
+      }
+    }
+    Files.createDirectories(dir);
+    Path path = dir.resolve(file.toString());
+    try (OutputStream out = Files.newOutputStream(path)) {
+      file.writeTo(out);
+    }
+    String message = String.format("Pushdown made a difference for the case of %s: %s%n"
+        + "  shrunk to %s: %s%n  failing layers: %s, rows: %s%n  file: %s", failing, difference, minimal,
+        findDifference(minimal, file, EnumSet.allOf(LocalParquetClient.FilterLayer.class), expected),
+        failingLayers, minimal.rows.size() <= 20 ? minimal.rows : "...", path);
+    LOGGER.error(message);
+    failures.add(message);
+  }
+
+  /**
+   * Runs the fuzzer configured by the system properties; exits with 1 if any case failed.
+   */
+  public static void main(String[] args) throws Exception {
+    List<String> failures = fromSystemProperties().run();
+    for (String failure : failures) {
+      System.out.println(failure);
+    }
+    System.exit(failures.isEmpty() ? 0 : 1);
+  }
+}
@@ -0,0 +1,33 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * A short, reproducible run of {@link DifferentialFuzzer}: a fixed seed and a bounded number of
+ * small cases, so that it can run with every build. Longer runs are started through
+ * {@link DifferentialFuzzer#main(String[])}.
+ */
+public class DifferentialFuzzerTest {
+  private static final long SEED = 20191105;
+  private static final long CASES = 200;
+  private static final int THREADS = 2;
+  private static final int MAX_ROWS = 200;
+  private static final int MAX_FAILURES = 3;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testPushdownDoesNotChangeResults() throws Exception {
+    List<String> failures = new DifferentialFuzzer(SEED, CASES, 0, THREADS, MAX_ROWS, MAX_FAILURES,
+        folder.getRoot().toPath()).run();
+    assertTrue("Pushdown changed the results:\n" + String.join("\n", failures), failures.isEmpty());
+  }
+}
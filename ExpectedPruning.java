@@ -0,0 +1,475 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.filter2.predicate.Operators;
+import org.apache.parquet.filter2.predicate.UserDefinedPredicate;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnPath;
+import org.apache.parquet.internal.column.columnindex.ColumnIndex;
+import org.apache.parquet.internal.column.columnindex.OffsetIndex;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+
+/**
+ * Calculates the row ranges and pages a reader is expected to read for a predicate from the column
+ * and offset indexes alone, without the filtering code of parquet-mr: the min/max values and null
+ * counts of every page are compared to the pushed down predicate using the comparator of the
+ * column type, the matching pages are mapped to row ranges through the offset indexes, and the
+ * ranges of AND and OR are intersected and united.
+ *
+ * A reader that is correct but does not use the column indexes reads more pages than expected.
+ * Reading fewer is fine, as the dictionaries may drop further row groups.
+ */
+class ExpectedPruning {
+  /**
+   * Decides whether a page may contain matching values.
+   */
+  private interface PagePredicate {
+    boolean mightMatch(PageBounds bounds, int page);
+  }
+
+  // null stands for all columns
+  private final Set<String> columns;
+  private long rowGroups;
+  private long rowGroupsSkipped;
+  private long rows;
+  private long selectedRows;
+  private final Map<String, Long> expectedPages = new TreeMap<>();
+  private final Map<String, Long> totalPages = new TreeMap<>();
+  private final List<String> rowRanges = new ArrayList<>();
+
+  private ExpectedPruning(Set<String> columns) {
+    this.columns = columns;
+  }
+
+  /**
+   * Calculates the pages of the specified top-level columns, or of all columns if {@code columns}
+   * is {@code null}, that have to be read for the condition in files of the specified nesting.
+   */
+  static ExpectedPruning calculate(List<InputFile> files, FilterExpression where, Nesting nesting,
+      Set<String> columns) throws IOException {
+    ExpectedPruning pruning = new ExpectedPruning(columns);
+    FilterPredicate predicate = where == null ? null : where.toFilterPredicate(nesting);
+    for (InputFile file : files) {
+      pruning.addFile(file, predicate);
+    }
+    return pruning;
+  }
+
+  private void addFile(InputFile file, FilterPredicate predicate) throws IOException {
+    try (ParquetFileReader reader = ParquetFileReader.open(file)) {
+      MessageType schema = reader.getFooter().getFileMetaData().getSchema();
+      for (BlockMetaData block : reader.getFooter().getBlocks()) {
+        Map<ColumnPath, ColumnChunkMetaData> chunks = new HashMap<>();
+        for (ColumnChunkMetaData chunk : block.getColumns()) {
+          chunks.put(chunk.getPath(), chunk);
+        }
+        long rowCount = block.getRowCount();
+        List<long[]> ranges;
+        try {
+          ranges = predicate == null ? all(rowCount)
+              : predicate.accept(new PageFilter(reader, schema, chunks, rowCount));
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+        long selected = count(ranges);
+        ++rowGroups;
+        rows += rowCount;
+        selectedRows += selected;
+        if (ranges.isEmpty()) {
+          ++rowGroupsSkipped;
+        } else if (selected < rowCount) {
+          rowRanges.add(file + ": " + format(ranges));
+        }
+        for (ColumnChunkMetaData chunk : block.getColumns()) {
+          String column = chunk.getPath().toDotString();
+          OffsetIndex offsetIndex = columns == null || columns.contains(chunk.getPath().toArray()[0])
+              ? reader.readOffsetIndex(chunk) : null;
+          if (offsetIndex == null) {
+            // Pages can not be counted without offset index
+            continue;
+          }
+          add(totalPages, column, offsetIndex.getPageCount());
+          add(expectedPages, column, countOverlappingPages(offsetIndex, rowCount, ranges));
+        }
+      }
+    }
+  }
+
+  private static void add(Map<String, Long> counts, String column, long count) {
+    Long current = counts.get(column);
+    counts.put(column, current == null ? count : current + count);
+  }
+
+  public Map<String, Long> getExpectedPages() {
+    return new TreeMap<>(expectedPages);
+  }
+
+  /**
+   * Returns the pages of the columns by the dot separated paths of their leaves.
+   */
+  public Map<String, Long> getTotalPages() {
+    return new TreeMap<>(totalPages);
+  }
+
+  public long getSelectedRows() {
+    return selectedRows;
+  }
+
+  /**
+   * Returns the columns of which the query read more pages than the indexes require, with the
+   * numbers of pages read and expected; empty if the reader pruned at least as much as expected.
+   */
+  Map<String, String> findUnprunedColumns(PageIoStats stats) {
+    Map<String, Long> pagesRead = stats.getPagesReadByColumn();
+    Map<String, String> unpruned = new TreeMap<>();
+    for (Map.Entry<String, Long> entry : expectedPages.entrySet()) {
+      Long read = pagesRead.get(entry.getKey());
+      if (read != null && read > entry.getValue()) {
+        unpruned.put(entry.getKey(), String.format("read %d pages instead of %d", read, entry.getValue()));
+      }
+    }
+    return unpruned;
+  }
+
+  @Override
+  public String toString() {
+    StringJoiner pages = new StringJoiner(", ", "{", "}");
+    for (Map.Entry<String, Long> entry : expectedPages.entrySet()) {
+      pages.add(entry.getKey() + "=" + entry.getValue() + "/" + totalPages.get(entry.getKey()));
+    }
+    return String.format("rows selected: %d/%d, row groups skipped: %d/%d, pages to read/total: %s, row ranges: %s",
+        selectedRows, rows, rowGroupsSkipped, rowGroups, pages, rowRanges);
+  }
+
+  private static List<long[]> all(long rowCount) {
+    List<long[]> ranges = new ArrayList<>();
+    if (rowCount > 0) {
+      ranges.add(new long[] { 0, rowCount - 1 });
+    }
+    return ranges;
+  }
+
+  /**
+   * Appends the inclusive range to the sorted ranges, merging it with the last one if they touch.
+   */
+  private static void append(List<long[]> ranges, long from, long to) {
+    if (!ranges.isEmpty()) {
+      long[] last = ranges.get(ranges.size() - 1);
+      if (last[1] + 1 >= from) {
+        last[1] = Math.max(last[1], to);
+        return;
+      }
+    }
+    ranges.add(new long[] { from, to });
+  }
+
+  private static List<long[]> union(List<long[]> left, List<long[]> right) {
+    List<long[]> result = new ArrayList<>();
+    int i = 0;
+    int j = 0;
+    while (i < left.size() || j < right.size()) {
+      long[] next = j == right.size() || (i < left.size() && left.get(i)[0] <= right.get(j)[0])
+          ? left.get(i++) : right.get(j++);
+      append(result, next[0], next[1]);
+    }
+    return result;
+  }
+
+  private static List<long[]> intersection(List<long[]> left, List<long[]> right) {
+    List<long[]> result = new ArrayList<>();
+    int i = 0;
+    int j = 0;
+    while (i < left.size() && j < right.size()) {
+      long[] l = left.get(i);
+      long[] r = right.get(j);
+      long from = Math.max(l[0], r[0]);
+      long to = Math.min(l[1], r[1]);
+      if (from <= to) {
+        append(result, from, to);
+      }
+      if (l[1] < r[1]) {
+        ++i;
+      } else {
+        ++j;
+      }
+    }
+    return result;
+  }
+
+  private static long count(List<long[]> ranges) {
+    long count = 0;
+    for (long[] range : ranges) {
+      count += range[1] - range[0] + 1;
+    }
+    return count;
+  }
+
+  private static String format(List<long[]> ranges) {
+    StringJoiner joiner = new StringJoiner(", ", "[", "]");
+    for (long[] range : ranges) {
+      joiner.add(range[0] + "-" + range[1]);
+    }
+    return joiner.toString();
+  }
+
+  private static long getLastRowIndex(OffsetIndex offsetIndex, int page, long rowCount) {
+    return page + 1 < offsetIndex.getPageCount() ? offsetIndex.getFirstRowIndex(page + 1) - 1 : rowCount - 1;
+  }
+
+  private static long countOverlappingPages(OffsetIndex offsetIndex, long rowCount, List<long[]> ranges) {
+    long count = 0;
+    int r = 0;
+    for (int page = 0, n = offsetIndex.getPageCount(); page < n && r < ranges.size(); ++page) {
+      long first = offsetIndex.getFirstRowIndex(page);
+      long last = getLastRowIndex(offsetIndex, page, rowCount);
+      while (r < ranges.size() && ranges.get(r)[1] < first) {
+        ++r;
+      }
+      if (r < ranges.size() && ranges.get(r)[0] <= last) {
+        ++count;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * The decoded min/max values and the null statistics of the pages of a column chunk.
+   */
+  private static class PageBounds {
+    private final List<Boolean> nullPages;
+    private final List<Long> nullCounts;
+    private final List<Object> minValues = new ArrayList<>();
+    private final List<Object> maxValues = new ArrayList<>();
+    private final Comparator<Object> comparator;
+
+    @SuppressWarnings("unchecked")
+    PageBounds(PrimitiveType type, ColumnIndex columnIndex) {
+      nullPages = columnIndex.getNullPages();
+      nullCounts = columnIndex.getNullCounts();
+      comparator = (Comparator<Object>) type.comparator();
+      for (int i = 0, n = nullPages.size(); i < n; ++i) {
+        minValues.add(nullPages.get(i) ? null : decode(type, columnIndex.getMinValues().get(i)));
+        maxValues.add(nullPages.get(i) ? null : decode(type, columnIndex.getMaxValues().get(i)));
+      }
+    }
+
+    private static Object decode(PrimitiveType type, ByteBuffer buffer) {
+      ByteBuffer value = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      int position = value.position();
+      switch (type.getPrimitiveTypeName()) {
+      case BOOLEAN:
+        return value.get(position) != 0;
+      case INT32:
+        return value.getInt(position);
+      case INT64:
+        return value.getLong(position);
+      case FLOAT:
+        return value.getFloat(position);
+      case DOUBLE:
+        return value.getDouble(position);
+      case BINARY:
+      case FIXED_LEN_BYTE_ARRAY:
+        return Binary.fromConstantByteBuffer(value);
+      default:
+        // INT96 has no defined order
+        return null;
+      }
+    }
+
+    boolean isNullPage(int page) {
+      return nullPages.get(page);
+    }
+
+    boolean hasNulls(int page) {
+      // Without null counts any page may contain nulls
+      return nullCounts == null || nullCounts.isEmpty() || nullCounts.get(page) > 0;
+    }
+
+    /**
+     * Whether the bounds do not order the values of the page, e.g. NaN is one of them.
+     */
+    boolean isUnordered(int page) {
+      return isUnordered(minValues.get(page)) || isUnordered(maxValues.get(page));
+    }
+
+    private static boolean isUnordered(Object value) {
+      return value == null || (value instanceof Float && ((Float) value).isNaN())
+          || (value instanceof Double && ((Double) value).isNaN());
+    }
+
+    int compareMin(int page, Object value) {
+      return comparator.compare(minValues.get(page), value);
+    }
+
+    int compareMax(int page, Object value) {
+      return comparator.compare(maxValues.get(page), value);
+    }
+  }
+
+  /**
+   * Evaluates the pushed down predicate on the pages of a row group, returning the matching row
+   * ranges.
+   */
+  private static class PageFilter implements FilterPredicate.Visitor<List<long[]>> {
+    private final ParquetFileReader reader;
+    private final MessageType schema;
+    private final Map<ColumnPath, ColumnChunkMetaData> chunks;
+    private final long rowCount;
+
+    PageFilter(ParquetFileReader reader, MessageType schema, Map<ColumnPath, ColumnChunkMetaData> chunks,
+        long rowCount) {
+      this.reader = reader;
+      this.schema = schema;
+      this.chunks = chunks;
+      this.rowCount = rowCount;
+    }
+
+    private List<long[]> filter(Operators.Column<?> column, PagePredicate predicate) {
+      ColumnChunkMetaData chunk = chunks.get(column.getColumnPath());
+      if (chunk == null) {
+        return all(rowCount);
+      }
+      ColumnIndex columnIndex;
+      OffsetIndex offsetIndex;
+      try {
+        columnIndex = reader.readColumnIndex(chunk);
+        offsetIndex = reader.readOffsetIndex(chunk);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (columnIndex == null || offsetIndex == null) {
+        // Nothing can be dropped without the indexes
+        return all(rowCount);
+      }
+      PrimitiveType type = schema.getColumnDescription(column.getColumnPath().toArray()).getPrimitiveType();
+      PageBounds bounds = new PageBounds(type, columnIndex);
+      List<long[]> ranges = new ArrayList<>();
+      for (int page = 0, n = offsetIndex.getPageCount(); page < n; ++page) {
+        if (predicate.mightMatch(bounds, page)) {
+          append(ranges, offsetIndex.getFirstRowIndex(page), getLastRowIndex(offsetIndex, page, rowCount));
+        }
+      }
+      return ranges;
+    }
+
+    @Override
+    public <T extends Comparable<T>> List<long[]> visit(Operators.Eq<T> eq) {
+      T value = eq.getValue();
+      return filter(eq.getColumn(), (bounds, page) -> value == null ? bounds.hasNulls(page)
+          : !bounds.isNullPage(page) && (bounds.isUnordered(page)
+              || (bounds.compareMin(page, value) <= 0 && bounds.compareMax(page, value) >= 0)));
+    }
+
+    @Override
+    public <T extends Comparable<T>> List<long[]> visit(Operators.NotEq<T> notEq) {
+      T value = notEq.getValue();
+      // Nulls match != in parquet-mr, only pages containing nothing but the value can be dropped
+      return filter(notEq.getColumn(), (bounds, page) -> value == null ? !bounds.isNullPage(page)
+          : bounds.hasNulls(page) || bounds.isUnordered(page) || bounds.compareMin(page, value) != 0
+              || bounds.compareMax(page, value) != 0);
+    }
+
+    @Override
+    public <T extends Comparable<T>> List<long[]> visit(Operators.Lt<T> lt) {
+      T value = lt.getValue();
+      return filter(lt.getColumn(), (bounds, page) -> !bounds.isNullPage(page)
+          && (bounds.isUnordered(page) || bounds.compareMin(page, value) < 0));
+    }
+
+    @Override
+    public <T extends Comparable<T>> List<long[]> visit(Operators.LtEq<T> ltEq) {
+      T value = ltEq.getValue();
+      return filter(ltEq.getColumn(), (bounds, page) -> !bounds.isNullPage(page)
+          && (bounds.isUnordered(page) || bounds.compareMin(page, value) <= 0));
+    }
+
+    @Override
+    public <T extends Comparable<T>> List<long[]> visit(Operators.Gt<T> gt) {
+      T value = gt.getValue();
+      return filter(gt.getColumn(), (bounds, page) -> !bounds.isNullPage(page)
+          && (bounds.isUnordered(page) || bounds.compareMax(page, value) > 0));
+    }
+
+    @Override
+    public <T extends Comparable<T>> List<long[]> visit(Operators.GtEq<T> gtEq) {
+      T value = gtEq.getValue();
+      return filter(gtEq.getColumn(), (bounds, page) -> !bounds.isNullPage(page)
+          && (bounds.isUnordered(page) || bounds.compareMax(page, value) >= 0));
+    }
+
+    @Override
+    public List<long[]> visit(Operators.And and) {
+      return intersection(and.getLeft().accept(this), and.getRight().accept(this));
+    }
+
+    @Override
+    public List<long[]> visit(Operators.Or or) {
+      return union(or.getLeft().accept(this), or.getRight().accept(this));
+    }
+
+    @Override
+    public List<long[]> visit(Operators.Not not) {
+      // The filter conditions of the test never contain NOT
+      return all(rowCount);
+    }
+
+    @Override
+    public <T extends Comparable<T>, U extends UserDefinedPredicate<T>> List<long[]> visit(
+        Operators.UserDefined<T, U> udp) {
+      return all(rowCount);
+    }
+
+    @Override
+    public <T extends Comparable<T>, U extends UserDefinedPredicate<T>> List<long[]> visit(
+        Operators.LogicalNotUserDefined<T, U> udp) {
+      return all(rowCount);
+    }
+  }
+
+  /**
+   * Prints the expected pruning of the condition given as second argument, e.g.
+   * {@code "int32_col = CAST('42' AS INT)"}, for the Parquet files in the directory given as first
+   * argument.
+   */
+  public static void main(String[] args) throws Exception {
+    Configuration conf = new Configuration();
+    Path dir = new Path(args[0]);
+    FileSystem fs = dir.getFileSystem(conf);
+    List<InputFile> files = new ArrayList<>();
+    for (FileStatus status : fs.listStatus(dir)) {
+      String name = status.getPath().getName();
+      if (status.isFile() && !name.startsWith(".") && !name.startsWith("_")) {
+        files.add(MappedInputFile.open(status.getPath(), conf));
+      }
+    }
+    Map<String, ColumnHelper> columns = new HashMap<>();
+    for (ColumnHelper helper : ColumnHelper.values()) {
+      columns.put(helper.getColumnName(), helper);
+    }
+    LocalQuery query = LocalQuery.parse("SELECT id FROM t WHERE " + args[1], columns);
+    System.out.println(calculate(files, query.getWhere(), Nesting.FLAT, null));
+  }
+}
@@ -0,0 +1,59 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Calculates the expected results of the filtering queries from the generated data, so that a
+ * reference query with predicate pushdown disabled is not needed.
+ *
+ * The WHERE clause is evaluated with the three-valued logic of SQL by {@link FilterExpression}.
+ * As every column of a generated row holds the reference value of the same index (or NULL), the
+ * expression is only evaluated once per value index and the rows are then selected by their value
+ * indexes. Results are cached by the textual form of the expression, i.e. by column, operator and
+ * literal.
+ */
+class ExpectedResultOracle {
+  private final DataGenerator generator;
+  private final ConcurrentMap<String, int[]> cache = new ConcurrentHashMap<>();
+
+  ExpectedResultOracle(DataGenerator generator) {
+    this.generator = generator;
+  }
+
+  /**
+   * Returns the IDs of the rows matching the expression in ascending order.
+   */
+  public int[] getMatchingIds(FilterExpression where) {
+    return cache.computeIfAbsent(where.toString(), key -> calculateMatchingIds(where));
+  }
+
+  private int[] calculateMatchingIds(FilterExpression where) {
+    // Index 0 is for NULL, the others are shifted by one
+    final int valueCount = 4;
+    boolean[] matches = new boolean[valueCount + 1];
+    for (int i = -1; i < valueCount; ++i) {
+      final int valueIndex = i;
+      matches[i + 1] = where.matches(new FilterExpression.Row() {
+        @Override
+        public Object getValue(ColumnHelper column) {
+          return valueIndex == DataGenerator.NULL_INDEX ? null : column.getValues().values.get(valueIndex);
+        }
+      });
+    }
+
+    int[] ids = new int[16];
+    int count = 0;
+    for (long row = 0, n = generator.getTotalRowCount(); row < n; ++row) {
+      if (matches[generator.getValueIndex(row) + 1]) {
+        if (count == ids.length) {
+          ids = Arrays.copyOf(ids, (int) Math.min((long) ids.length * 2, Integer.MAX_VALUE - 8));
+        }
+        ids[count++] = generator.getId(row);
+      }
+    }
+    return Arrays.copyOf(ids, count);
+  }
+}
@@ -0,0 +1,77 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnPath;
+import org.apache.parquet.internal.column.columnindex.ColumnIndex;
+import org.apache.parquet.internal.column.columnindex.OffsetIndex;
+import org.apache.parquet.internal.filter2.columnindex.ColumnIndexStore;
+
+/**
+ * Lazily reads the column and offset indexes of a row group through
+ * {@link ParquetFileReader#readColumnIndex(ColumnChunkMetaData)} and
+ * {@link ParquetFileReader#readOffsetIndex(ColumnChunkMetaData)}.
+ */
+class FileColumnIndexStore implements ColumnIndexStore {
+  private final ParquetFileReader reader;
+  private final Map<ColumnPath, ColumnChunkMetaData> chunks = new HashMap<>();
+  private final Map<ColumnPath, ColumnIndex> columnIndexes = new HashMap<>();
+  private final Map<ColumnPath, OffsetIndex> offsetIndexes = new HashMap<>();
+
+  FileColumnIndexStore(ParquetFileReader reader, BlockMetaData block) {
+    this.reader = reader;
+    for (ColumnChunkMetaData chunk : block.getColumns()) {
+      chunks.put(chunk.getPath(), chunk);
+    }
+  }
+
+  /**
+   * Returns the metadata of the column chunk or {@code null} if the row group has no such column.
+   */
+  ColumnChunkMetaData getChunk(ColumnPath column) {
+    return chunks.get(column);
+  }
+
+  @Override
+  public ColumnIndex getColumnIndex(ColumnPath column) {
+    ColumnChunkMetaData chunk = chunks.get(column);
+    if (chunk == null) {
+      return null;
+    }
+    if (!columnIndexes.containsKey(column)) {
+      try {
+        columnIndexes.put(column, reader.readColumnIndex(chunk));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return columnIndexes.get(column);
+  }
+
+  @Override
+  public OffsetIndex getOffsetIndex(ColumnPath column) {
+    ColumnChunkMetaData chunk = chunks.get(column);
+    if (chunk == null) {
+      throw new MissingOffsetIndexException(column);
+    }
+    if (!offsetIndexes.containsKey(column)) {
+      try {
+        offsetIndexes.put(column, reader.readOffsetIndex(chunk));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    OffsetIndex offsetIndex = offsetIndexes.get(column);
+    if (offsetIndex == null) {
+      throw new MissingOffsetIndexException(column);
+    }
+    return offsetIndex;
+  }
+}
@@ -0,0 +1,418 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import static org.apache.parquet.filter2.predicate.FilterApi.binaryColumn;
+import static org.apache.parquet.filter2.predicate.FilterApi.booleanColumn;
+import static org.apache.parquet.filter2.predicate.FilterApi.doubleColumn;
+import static org.apache.parquet.filter2.predicate.FilterApi.floatColumn;
+import static org.apache.parquet.filter2.predicate.FilterApi.intColumn;
+import static org.apache.parquet.filter2.predicate.FilterApi.longColumn;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.parquet.filter2.predicate.FilterApi;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.filter2.predicate.Operators;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.PrimitiveType;
+
+/**
+ * The WHERE clause of the queries generated by the test, evaluated in-process.
+ *
+ * Evaluation follows the three-valued logic of SQL: comparing anything to NULL results in UNKNOWN,
+ * represented by {@code null}, and only rows evaluating to TRUE are returned by a query.
+ */
+abstract class FilterExpression {
+  /**
+   * Provides the values of the current row.
+   */
+  interface Row {
+    Object getValue(ColumnHelper column);
+  }
+
+  /**
+   * Returns TRUE, FALSE or {@code null} for UNKNOWN.
+   */
+  abstract public Boolean evaluate(Row row);
+
+  /**
+   * Returns the parquet-mr predicate to be pushed down or {@code null} if the expression can not be
+   * pushed down. Pushed down predicates may return more rows than the expression itself (e.g. NULLs
+   * for !=), so the expression has to be evaluated on the returned rows anyway.
+   */
+  public FilterPredicate toFilterPredicate() {
+    return toFilterPredicate(Nesting.FLAT);
+  }
+
+  /**
+   * Returns the predicate to be pushed down to the leaves holding the values of the columns in
+   * files of the specified nesting.
+   */
+  abstract public FilterPredicate toFilterPredicate(Nesting nesting);
+
+  abstract public Set<ColumnHelper> getColumns();
+
+  /**
+   * Returns the operands of AND and OR; predicates have none.
+   */
+  public List<FilterExpression> getOperands() {
+    return Collections.emptyList();
+  }
+
+  public boolean matches(Row row) {
+    return Boolean.TRUE.equals(evaluate(row));
+  }
+
+  static FilterExpression comparison(ColumnHelper column, String operator, Object literal) {
+    return literal == null ? new NullLiteralComparison(column, operator) : new Comparison(column, operator, literal);
+  }
+
+  static FilterExpression isNull(ColumnHelper column, boolean negated) {
+    return new NullCheck(column, negated);
+  }
+
+  static FilterExpression or(FilterExpression left, FilterExpression right) {
+    return new Or(left, right);
+  }
+
+  static FilterExpression and(FilterExpression left, FilterExpression right) {
+    return new And(left, right);
+  }
+
+  /**
+   * {@code column BETWEEN lower AND upper}, which is the same as
+   * {@code column >= lower AND column <= upper}.
+   */
+  static FilterExpression between(ColumnHelper column, Object lower, Object upper) {
+    return and(comparison(column, ">=", lower), comparison(column, "<=", upper));
+  }
+
+  /**
+   * {@code column IN (values...)}, which is the same as the disjunction of the equalities.
+   */
+  static FilterExpression in(ColumnHelper column, List<?> values) {
+    FilterExpression expression = null;
+    for (Object value : values) {
+      FilterExpression equality = comparison(column, "=", value);
+      expression = expression == null ? equality : or(expression, equality);
+    }
+    if (expression == null) {
+      throw new IllegalArgumentException("Empty IN list");
+    }
+    return expression;
+  }
+
+  /**
+   * Compares two non-null values of the same column. Floating point values are compared
+   * numerically, so -0.0 equals 0.0; NaN is greater than any other value.
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  static int compareValues(Object a, Object b) {
+    if (a instanceof Float || a instanceof Double) {
+      double x = ((Number) a).doubleValue();
+      double y = ((Number) b).doubleValue();
+      return x < y ? -1 : x > y ? 1 : x == y ? 0 : Double.compare(x, y);
+    }
+    if (a instanceof BigDecimal) {
+      // compareTo() ignores the scale
+      return ((BigDecimal) a).compareTo((BigDecimal) b);
+    }
+    return ((Comparable) a).compareTo(b);
+  }
+
+  static Boolean compare(Object value, String operator, Object literal) {
+    if (value == null || literal == null) {
+      return null;
+    }
+    int cmp = compareValues(value, literal);
+    switch (operator) {
+    case "=":
+      return cmp == 0;
+    case "!=":
+    case "<>":
+      return cmp != 0;
+    case "<":
+      return cmp < 0;
+    case ">":
+      return cmp > 0;
+    case "<=":
+      return cmp <= 0;
+    case ">=":
+      return cmp >= 0;
+    default:
+      throw new IllegalArgumentException("Unsupported operator: " + operator);
+    }
+  }
+
+  private static class Or extends FilterExpression {
+    private final FilterExpression left;
+    private final FilterExpression right;
+
+    Or(FilterExpression left, FilterExpression right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public Boolean evaluate(Row row) {
+      Boolean l = left.evaluate(row);
+      if (Boolean.TRUE.equals(l)) {
+        return true;
+      }
+      Boolean r = right.evaluate(row);
+      if (Boolean.TRUE.equals(r)) {
+        return true;
+      }
+      return l == null || r == null ? null : false;
+    }
+
+    @Override
+    public FilterPredicate toFilterPredicate(Nesting nesting) {
+      // Both sides have to be pushed down, otherwise rows matching only the other side would be dropped
+      FilterPredicate l = left.toFilterPredicate(nesting);
+      FilterPredicate r = right.toFilterPredicate(nesting);
+      return l == null || r == null ? null : FilterApi.or(l, r);
+    }
+
+    @Override
+    public Set<ColumnHelper> getColumns() {
+      Set<ColumnHelper> columns = new LinkedHashSet<>(left.getColumns());
+      columns.addAll(right.getColumns());
+      return columns;
+    }
+
+    @Override
+    public List<FilterExpression> getOperands() {
+      return Arrays.asList(left, right);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("(%s) OR (%s)", left, right);
+    }
+  }
+
+  private static class And extends FilterExpression {
+    private final FilterExpression left;
+    private final FilterExpression right;
+
+    And(FilterExpression left, FilterExpression right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public Boolean evaluate(Row row) {
+      Boolean l = left.evaluate(row);
+      if (Boolean.FALSE.equals(l)) {
+        return false;
+      }
+      Boolean r = right.evaluate(row);
+      if (Boolean.FALSE.equals(r)) {
+        return false;
+      }
+      return l == null || r == null ? null : true;
+    }
+
+    @Override
+    public FilterPredicate toFilterPredicate(Nesting nesting) {
+      // Pushing down only one side still returns every matching row
+      FilterPredicate l = left.toFilterPredicate(nesting);
+      FilterPredicate r = right.toFilterPredicate(nesting);
+      if (l == null || r == null) {
+        return l == null ? r : l;
+      }
+      return FilterApi.and(l, r);
+    }
+
+    @Override
+    public Set<ColumnHelper> getColumns() {
+      Set<ColumnHelper> columns = new LinkedHashSet<>(left.getColumns());
+      columns.addAll(right.getColumns());
+      return columns;
+    }
+
+    @Override
+    public List<FilterExpression> getOperands() {
+      return Arrays.asList(left, right);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("(%s) AND (%s)", left, right);
+    }
+  }
+
+  private static class Comparison extends FilterExpression {
+    private final ColumnHelper column;
+    private final String operator;
+    private final Object literal;
+
+    Comparison(ColumnHelper column, String operator, Object literal) {
+      this.column = column;
+      this.operator = operator;
+      this.literal = literal;
+    }
+
+    @Override
+    public Boolean evaluate(Row row) {
+      return compare(row.getValue(column), operator, literal);
+    }
+
+    @Override
+    public FilterPredicate toFilterPredicate(Nesting nesting) {
+      String name = nesting.getLeafPath(column);
+      Object value = column.valueToFileFormatValue(literal);
+      PrimitiveType type = column.getSchema().asPrimitiveType();
+      switch (type.getPrimitiveTypeName()) {
+      case BOOLEAN:
+        Operators.BooleanColumn booleanColumn = booleanColumn(name);
+        switch (operator) {
+        case "=":
+          return FilterApi.eq(booleanColumn, (Boolean) value);
+        case "!=":
+        case "<>":
+          return FilterApi.notEq(booleanColumn, (Boolean) value);
+        default:
+          return null;
+        }
+      case INT32:
+        return toPredicate(intColumn(name), (Integer) value);
+      case INT64:
+        return toPredicate(longColumn(name), (Long) value);
+      case FLOAT:
+        return toPredicate(floatColumn(name), (Float) value);
+      case DOUBLE:
+        return toPredicate(doubleColumn(name), (Double) value);
+      case BINARY:
+      case FIXED_LEN_BYTE_ARRAY:
+        return toPredicate(binaryColumn(name), (Binary) value);
+      default:
+        // There is no filter support for INT96
+        return null;
+      }
+    }
+
+    private <T extends Comparable<T>, C extends Operators.Column<T> & Operators.SupportsLtGt> FilterPredicate toPredicate(
+        C col, T value) {
+      switch (operator) {
+      case "=":
+        return FilterApi.eq(col, value);
+      case "!=":
+      case "<>":
+        return FilterApi.notEq(col, value);
+      case "<":
+        return FilterApi.lt(col, value);
+      case ">":
+        return FilterApi.gt(col, value);
+      case "<=":
+        return FilterApi.ltEq(col, value);
+      case ">=":
+        return FilterApi.gtEq(col, value);
+      default:
+        throw new IllegalArgumentException("Unsupported operator: " + operator);
+      }
+    }
+
+    @Override
+    public Set<ColumnHelper> getColumns() {
+      return Collections.singleton(column);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s %s %s", column.getColumnName(), operator, column.valueToSqlLiteral(literal));
+    }
+  }
+
+  /**
+   * Comparing to a NULL literal is UNKNOWN for every row.
+   */
+  private static class NullLiteralComparison extends FilterExpression {
+    private final ColumnHelper column;
+    private final String operator;
+
+    NullLiteralComparison(ColumnHelper column, String operator) {
+      this.column = column;
+      this.operator = operator;
+    }
+
+    @Override
+    public Boolean evaluate(Row row) {
+      return null;
+    }
+
+    @Override
+    public FilterPredicate toFilterPredicate(Nesting nesting) {
+      return null;
+    }
+
+    @Override
+    public Set<ColumnHelper> getColumns() {
+      return Collections.singleton(column);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s %s NULL", column.getColumnName(), operator);
+    }
+  }
+
+  private static class NullCheck extends FilterExpression {
+    private final ColumnHelper column;
+    private final boolean negated;
+
+    NullCheck(ColumnHelper column, boolean negated) {
+      this.column = column;
+      this.negated = negated;
+    }
+
+    @Override
+    public Boolean evaluate(Row row) {
+      return (row.getValue(column) == null) != negated;
+    }
+
+    @Override
+    public FilterPredicate toFilterPredicate(Nesting nesting) {
+      PrimitiveType type = column.getSchema().asPrimitiveType();
+      String name = nesting.getLeafPath(column);
+      switch (type.getPrimitiveTypeName()) {
+      case BOOLEAN:
+        return nullCheck(booleanColumn(name));
+      case INT32:
+        return nullCheck(intColumn(name));
+      case INT64:
+        return nullCheck(longColumn(name));
+      case FLOAT:
+        return nullCheck(floatColumn(name));
+      case DOUBLE:
+        return nullCheck(doubleColumn(name));
+      case BINARY:
+      case FIXED_LEN_BYTE_ARRAY:
+        return nullCheck(binaryColumn(name));
+      default:
+        return null;
+      }
+    }
+
+    private <T extends Comparable<T>, C extends Operators.Column<T> & Operators.SupportsEqNotEq> FilterPredicate nullCheck(
+        C col) {
+      return negated ? FilterApi.notEq(col, null) : FilterApi.eq(col, null);
+    }
+
+    @Override
+    public Set<ColumnHelper> getColumns() {
+      return Collections.singleton(column);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s IS %sNULL", column.getColumnName(), negated ? "NOT " : "");
+    }
+  }
+}
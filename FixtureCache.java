@@ -0,0 +1,238 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the written fixtures between runs of the suite. A fixture is stored in a directory named
+ * after the SHA-256 hash of its description, i.e. of everything the content of the files depends
+ * on, so a changed schema, data pattern or writer configuration never hits a stale entry.
+ *
+ * The files are written to a temporary directory which is renamed to its final name after the
+ * {@value #COMPLETE_MARKER} marker, holding the description, is written; an interrupted run leaves
+ * no entry that looks complete. The marker starts with "_" so that the readers skip it.
+ *
+ * The description is salted with {@link #VERSION}, which has to be bumped whenever the content of
+ * the files changes without changing their description, e.g. a new data pattern or value encoding.
+ *
+ * Within the JVM a fixture is created by a single thread; the others wait for it. Concurrent runs
+ * may still write the same fixture, in which case the first rename wins.
+ *
+ * Entries older than {@value #MAX_AGE_HOURS_PROPERTY} hours, then the least recently used ones
+ * above {@value #MAX_BYTES_PROPERTY} bytes in total, are evicted when the cache is opened.
+ */
+class FixtureCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(FixtureCache.class);
+
+  // "true" uses a directory in the base directory of the storage, anything else is the cache directory
+  static final String PROPERTY = "columnindexfiltering.cache";
+  static final String MAX_BYTES_PROPERTY = "columnindexfiltering.cache.max.bytes";
+  static final String MAX_AGE_HOURS_PROPERTY = "columnindexfiltering.cache.max.age.hours";
+
+  static final String DIR_NAME = "columnindexfiltering_cache";
+  static final String COMPLETE_MARKER = "_COMPLETE";
+  static final int VERSION = 1;
+  private static final String IN_PROGRESS = ".in-progress-";
+  private static final long DEFAULT_MAX_BYTES = 10L << 30;
+  private static final long DEFAULT_MAX_AGE_HOURS = 7 * 24;
+
+  /**
+   * Writes the files of a fixture to the specified directory.
+   */
+  interface FixtureWriter {
+    void write(Path dir) throws Exception;
+  }
+
+  private final FileSystem fs;
+  private final Path root;
+  private final long maxBytes;
+  private final long maxAgeMillis;
+  // The fixtures being created or already created by this JVM, by key
+  private final ConcurrentMap<String, FutureTask<Path>> creations = new ConcurrentHashMap<>();
+
+  FixtureCache(FileSystem fs, Path root, long maxBytes, long maxAgeMillis) throws IOException {
+    this.fs = fs;
+    this.root = root;
+    this.maxBytes = maxBytes;
+    this.maxAgeMillis = maxAgeMillis;
+    fs.mkdirs(root);
+    evict();
+  }
+
+  /**
+   * Returns the cache configured by the {@value #PROPERTY} system property or {@code null} if
+   * caching is disabled.
+   */
+  static FixtureCache fromSystemProperties(FileSystem fs, Path baseDir) throws IOException {
+    String value = System.getProperty(PROPERTY);
+    if (value == null || value.isEmpty() || "false".equals(value)) {
+      return null;
+    }
+    Path root = "true".equals(value) ? new Path(baseDir, DIR_NAME) : fs.makeQualified(new Path(value));
+    return new FixtureCache(fs, root,
+        Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES),
+        TimeUnit.HOURS.toMillis(Long.getLong(MAX_AGE_HOURS_PROPERTY, DEFAULT_MAX_AGE_HOURS)));
+  }
+
+  /**
+   * The hex SHA-256 hash of the description of a fixture.
+   */
+  static String key(String description) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM has to support SHA-256
+      throw new IllegalStateException(e);
+    }
+    StringBuilder builder = new StringBuilder();
+    for (byte b : digest.digest(salt(description).getBytes(StandardCharsets.UTF_8))) {
+      builder.append(String.format("%02x", b));
+    }
+    return builder.toString();
+  }
+
+  private static String salt(String description) {
+    return "cache version: " + VERSION + "\n" + description;
+  }
+
+  /**
+   * Returns the directory of the fixture with the specified description; the fixture is written by
+   * the specified writer if it is not cached yet.
+   */
+  Path getOrCreate(String description, FixtureWriter writer) throws Exception {
+    String key = key(description);
+    FutureTask<Path> task = new FutureTask<>(() -> create(key, description, writer));
+    FutureTask<Path> existing = creations.putIfAbsent(key, task);
+    if (existing == null) {
+      task.run();
+    } else {
+      task = existing;
+    }
+    try {
+      return task.get();
+    } catch (ExecutionException e) {
+      // Let a later test case try again
+      creations.remove(key, task);
+      Throwable cause = e.getCause();
+      throw cause instanceof Exception ? (Exception) cause : e;
+    }
+  }
+
+  private Path create(String key, String description, FixtureWriter writer) throws Exception {
+    Path dir = new Path(root, key);
+    if (isComplete(dir)) {
+      // The modification time of the marker is the last use for the eviction
+      fs.setTimes(new Path(dir, COMPLETE_MARKER), System.currentTimeMillis(), -1);
+      LOGGER.info("Reusing the cached fixture {}.", dir);
+      return dir;
+    }
+    Path tmp = new Path(root, dir.getName() + IN_PROGRESS + UUID.randomUUID());
+    try {
+      writer.write(tmp);
+      try (OutputStream out = fs.create(new Path(tmp, COMPLETE_MARKER))) {
+        out.write(salt(description).getBytes(StandardCharsets.UTF_8));
+      }
+      if (fs.exists(dir)) {
+        if (isComplete(dir)) {
+          // Another run has cached the same fixture in the meantime
+          return dir;
+        }
+        fs.delete(dir, true);
+      }
+      if (!fs.rename(tmp, dir)) {
+        throw new IOException("Could not rename " + tmp + " to " + dir);
+      }
+      Path nested = new Path(dir, tmp.getName());
+      if (fs.exists(nested)) {
+        // Another run created the directory after the check above, so tmp was moved into it
+        fs.delete(nested, true);
+      }
+      if (!isComplete(dir)) {
+        throw new IOException("The cached fixture " + dir + " is incomplete after renaming " + tmp + " to it");
+      }
+      LOGGER.info("Cached the fixture {}.", dir);
+      return dir;
+    } finally {
+      if (fs.exists(tmp)) {
+        fs.delete(tmp, true);
+      }
+    }
+  }
+
+  private boolean isComplete(Path dir) throws IOException {
+    return fs.exists(new Path(dir, COMPLETE_MARKER));
+  }
+
+  private void evict() throws IOException {
+    long now = System.currentTimeMillis();
+    List<Entry> entries = new ArrayList<>();
+    for (FileStatus status : fs.listStatus(root)) {
+      Path dir = status.getPath();
+      Path marker = new Path(dir, COMPLETE_MARKER);
+      if (!status.isDirectory()) {
+        continue;
+      }
+      // Incomplete entries are only removed once they are surely not being written anymore
+      long lastUsed = fs.exists(marker) ? fs.getFileStatus(marker).getModificationTime()
+          : dir.getName().contains(IN_PROGRESS) ? status.getModificationTime() : 0;
+      if (now - lastUsed > maxAgeMillis) {
+        LOGGER.info("Evicting the cached fixture {}, last used {} h ago.", dir,
+            TimeUnit.MILLISECONDS.toHours(now - lastUsed));
+        fs.delete(dir, true);
+      } else if (!dir.getName().contains(IN_PROGRESS)) {
+        entries.add(new Entry(dir, lastUsed, fs.getContentSummary(dir).getLength()));
+      }
+    }
+    long totalBytes = 0;
+    for (Entry entry : entries) {
+      totalBytes += entry.bytes;
+    }
+    entries.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+    for (Entry entry : entries) {
+      if (totalBytes <= maxBytes) {
+        break;
+      }
+      LOGGER.info("Evicting the cached fixture {} of {} bytes, the cache is above {} bytes.", entry.dir,
+          entry.bytes, maxBytes);
+      fs.delete(entry.dir, true);
+      totalBytes -= entry.bytes;
+    }
+  }
+
+  private static class Entry {
+    private final Path dir;
+    private final long lastUsed;
+    private final long bytes;
+
+    Entry(Path dir, long lastUsed, long bytes) {
+      this.dir = dir;
+      this.lastUsed = lastUsed;
+      this.bytes = bytes;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return root.toString();
+  }
+}
@@ -0,0 +1,102 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.internal.hadoop.metadata.IndexReference;
+
+/**
+ * Collects the measurements of a page and row group geometry of the sweep: write throughput, file
+ * and index sizes from the footers, and the pages read and skipped by the PPD runs of the queries.
+ * For nested columns with a repeated sibling, the pages skipped in the sibling are compared to the
+ * ones skipped in the filtered leaf: the row ranges are the same, but the pages cover other rows.
+ */
+class GeometryReport {
+  private long rowsWritten;
+  private long writeNanos;
+  private long rowsCached;
+  private long cachedBytes;
+  private long files;
+  private long fileBytes;
+  private long rowGroups;
+  private long columnChunks;
+  private long columnIndexBytes;
+  private long offsetIndexBytes;
+  private long queries;
+  private long pagesRead;
+  private long pagesSkipped;
+  private long filteredPages;
+  private long filteredPagesSkipped;
+  private long siblingPages;
+  private long siblingPagesSkipped;
+
+  synchronized void addWrite(long rows, long bytes, long nanos) {
+    rowsWritten += rows;
+    fileBytes += bytes;
+    writeNanos += nanos;
+  }
+
+  /**
+   * Registers the rows of a fixture reused from the cache, which were not written by this run.
+   */
+  synchronized void addCached(long rows, long bytes) {
+    rowsCached += rows;
+    cachedBytes += bytes;
+  }
+
+  synchronized void addFooter(ParquetMetadata footer) {
+    ++files;
+    for (BlockMetaData block : footer.getBlocks()) {
+      ++rowGroups;
+      for (ColumnChunkMetaData chunk : block.getColumns()) {
+        ++columnChunks;
+        columnIndexBytes += getLength(chunk.getColumnIndexReference());
+        offsetIndexBytes += getLength(chunk.getOffsetIndexReference());
+      }
+    }
+  }
+
+  synchronized void addQuery(PageIoStats stats) {
+    ++queries;
+    pagesRead += stats.getPagesRead();
+    pagesSkipped += stats.getPagesSkipped();
+  }
+
+  synchronized void addSiblingPages(long filteredTotal, long filteredRead, long siblingTotal, long siblingRead) {
+    filteredPages += filteredTotal;
+    filteredPagesSkipped += Math.max(filteredTotal - filteredRead, 0);
+    siblingPages += siblingTotal;
+    siblingPagesSkipped += Math.max(siblingTotal - siblingRead, 0);
+  }
+
+  private static double ratio(long part, long total) {
+    return total == 0 ? 0 : (double) part / total;
+  }
+
+  private static long getLength(IndexReference reference) {
+    return reference == null ? 0 : reference.getLength();
+  }
+
+  @Override
+  public synchronized String toString() {
+    double seconds = Math.max(writeNanos, 1) / 1e9;
+    String siblings = "";
+    if (siblingPages > 0) {
+      double filteredRatio = ratio(filteredPagesSkipped, filteredPages);
+      double siblingRatio = ratio(siblingPagesSkipped, siblingPages);
+      siblings = String.format("; filtered leaves skipped %d of %d pages (%.3f), their repeated siblings %d of %d "
+          + "(%.3f, carry-over: %.3f)", filteredPagesSkipped, filteredPages, filteredRatio, siblingPagesSkipped,
+          siblingPages, siblingRatio, filteredRatio == 0 ? 0 : siblingRatio / filteredRatio);
+    }
+    String cached = rowsCached == 0 ? "" : String.format(", reused %d cached rows (%d bytes)", rowsCached,
+        cachedBytes);
+    return String.format(
+        "written %d rows in %d files (%d bytes) at %.0f rows/s, %.2f MB/s%s; %d row groups, %d column chunks, "
+            + "column indexes: %d bytes, offset indexes: %d bytes; %d queries read %d and skipped %d pages "
+            + "(pruning ratio: %.3f)%s",
+        rowsWritten, files, fileBytes, rowsWritten / seconds, fileBytes / seconds / (1024 * 1024), cached, rowGroups,
+        columnChunks, columnIndexBytes, offsetIndexBytes, queries, pagesRead, pagesSkipped,
+        ratio(pagesSkipped, pagesRead + pagesSkipped), siblings);
+  }
+}
@@ -0,0 +1,90 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+
+/**
+ * An {@link OutputFile} keeping the written file in the heap, so that small files can be written
+ * and read back without touching any file system.
+ */
+class InMemoryOutputFile implements OutputFile {
+  private final String name;
+  private Buffer buffer;
+
+  InMemoryOutputFile(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public PositionOutputStream create(long blockSizeHint) throws IOException {
+    if (buffer != null) {
+      throw new IOException("File already exists: " + name);
+    }
+    return createOrOverwrite(blockSizeHint);
+  }
+
+  @Override
+  public PositionOutputStream createOrOverwrite(long blockSizeHint) {
+    final Buffer out = new Buffer();
+    buffer = out;
+    return new PositionOutputStream() {
+      @Override
+      public long getPos() {
+        return out.size();
+      }
+
+      @Override
+      public void write(int b) {
+        out.write(b);
+      }
+
+      @Override
+      public void write(byte[] bytes, int off, int len) {
+        out.write(bytes, off, len);
+      }
+    };
+  }
+
+  @Override
+  public boolean supportsBlockSize() {
+    return false;
+  }
+
+  @Override
+  public long defaultBlockSize() {
+    return 0;
+  }
+
+  /**
+   * Returns the written file for reading; the content is not copied.
+   */
+  InputFile toInputFile() {
+    return MappedInputFile.wrap(name, buffer.toByteBuffer());
+  }
+
+  void writeTo(OutputStream out) throws IOException {
+    buffer.writeTo(out);
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  private static class Buffer extends ByteArrayOutputStream {
+    Buffer() {
+      super(64 * 1024);
+    }
+
+    ByteBuffer toByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+}
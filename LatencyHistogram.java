@@ -0,0 +1,86 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+/**
+ * A histogram of latencies in microseconds with logarithmic buckets in the style of HdrHistogram:
+ * every power of two range is split into {@value #SUB_BUCKET_COUNT} linear sub-buckets, so the
+ * reported percentiles are within 1/{@value #SUB_BUCKET_COUNT} of the recorded values regardless of
+ * their magnitude, while the memory is fixed.
+ */
+class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 5;
+  static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  // Values below SUB_BUCKET_COUNT are counted exactly, the others by exponent and sub-bucket
+  private final long[] counts = new long[SUB_BUCKET_COUNT * (Long.SIZE - SUB_BUCKET_BITS + 1)];
+  private long count;
+  private long sum;
+  private long min = Long.MAX_VALUE;
+  private long max;
+
+  synchronized void recordNanos(long nanos) {
+    record(Math.max(nanos, 0) / 1000);
+  }
+
+  synchronized void record(long micros) {
+    ++counts[getIndex(micros)];
+    ++count;
+    sum += micros;
+    min = Math.min(min, micros);
+    max = Math.max(max, micros);
+  }
+
+  private static int getIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return SUB_BUCKET_COUNT * (exponent + 1) + (int) (value >>> exponent) - SUB_BUCKET_COUNT;
+  }
+
+  /**
+   * The highest value counted in the bucket of the specified index.
+   */
+  private static long getHighestValue(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKET_COUNT - 1;
+    long mantissa = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+    return ((mantissa + 1) << exponent) - 1;
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  public synchronized double getMeanMicros() {
+    return count == 0 ? 0 : (double) sum / count;
+  }
+
+  public synchronized long getMinMicros() {
+    return count == 0 ? 0 : min;
+  }
+
+  public synchronized long getMaxMicros() {
+    return max;
+  }
+
+  /**
+   * Returns the value below or at which the specified percentage of the recorded values are.
+   */
+  public synchronized long getPercentileMicros(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+    long seen = 0;
+    for (int i = 0; i < counts.length; ++i) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(getHighestValue(i), max);
+      }
+    }
+    return max;
+  }
+}
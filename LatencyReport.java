@@ -0,0 +1,217 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import static java.util.Arrays.asList;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Query latencies by reader component, column, operator, writer settings, compression and PPD
+ * setting. The geometry, truncate length and codec sweeps write different fixtures, so their
+ * latencies are kept apart.
+ *
+ * The report is written as CSV and JSON to {@value #REPORT_PROPERTY} (a path without extension).
+ * If {@value #BASELINE_PROPERTY} points to the CSV report of an earlier run, the percentiles are
+ * compared to it: a latency is a regression if it grew by more than {@value #MAX_REGRESSION_PROPERTY}
+ * (a ratio, 0.25 by default) and by more than {@value #MIN_REGRESSION_MS_PROPERTY} milliseconds (1 by
+ * default), so that the noise of very fast queries is ignored.
+ */
+class LatencyReport {
+  private static final Logger LOGGER = LoggerFactory.getLogger(LatencyReport.class);
+
+  static final String REPORT_PROPERTY = "columnindexfiltering.latency.report";
+  static final String BASELINE_PROPERTY = "columnindexfiltering.latency.baseline";
+  static final String MAX_REGRESSION_PROPERTY = "columnindexfiltering.latency.max.regression";
+  static final String MIN_REGRESSION_MS_PROPERTY = "columnindexfiltering.latency.min.regression.ms";
+
+  private static final List<String> DIMENSIONS =
+      asList("component", "column", "operator", "writer_settings", "compression", "ppd");
+  private static final double[] PERCENTILES = { 50, 90, 99 };
+  // The percentiles compared to the baseline
+  private static final List<String> COMPARED = asList("p50_ms", "p99_ms");
+
+  private final ConcurrentMap<List<String>, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+  void record(String component, ColumnHelper column, String operator, WriterSettings settings,
+      String compression, boolean ppd, long nanos) {
+    // The descriptions of the writer settings are comma separated
+    List<String> key = asList(component, column.name(), operator, settings.toString().replace(", ", ";"),
+        compression, ppd ? "on" : "off");
+    histograms.computeIfAbsent(key, k -> new LatencyHistogram()).recordNanos(nanos);
+  }
+
+  boolean isEmpty() {
+    return histograms.isEmpty();
+  }
+
+  /**
+   * Returns the measured values by key; the columns are the ones of the CSV report after the
+   * dimensions.
+   */
+  private Map<List<String>, Map<String, Double>> getValues() {
+    Map<List<String>, Map<String, Double>> values =
+        new TreeMap<>(Comparator.comparing((List<String> key) -> String.join(",", key)));
+    for (Map.Entry<List<String>, LatencyHistogram> entry : histograms.entrySet()) {
+      LatencyHistogram histogram = entry.getValue();
+      Map<String, Double> row = new LinkedHashMap<>();
+      row.put("count", (double) histogram.getCount());
+      row.put("mean_ms", histogram.getMeanMicros() / 1000);
+      row.put("min_ms", histogram.getMinMicros() / 1000.0);
+      for (double percentile : PERCENTILES) {
+        row.put(String.format("p%.0f_ms", percentile), histogram.getPercentileMicros(percentile) / 1000.0);
+      }
+      row.put("max_ms", histogram.getMaxMicros() / 1000.0);
+      values.put(entry.getKey(), row);
+    }
+    return values;
+  }
+
+  String toCsv() {
+    StringJoiner csv = new StringJoiner("\n", "", "\n");
+    boolean header = true;
+    for (Map.Entry<List<String>, Map<String, Double>> entry : getValues().entrySet()) {
+      if (header) {
+        List<String> names = new ArrayList<>(DIMENSIONS);
+        names.addAll(entry.getValue().keySet());
+        csv.add(String.join(",", names));
+        header = false;
+      }
+      StringJoiner line = new StringJoiner(",");
+      for (String value : entry.getKey()) {
+        line.add(value);
+      }
+      for (double value : entry.getValue().values()) {
+        line.add(format(value));
+      }
+      csv.add(line.toString());
+    }
+    return csv.toString();
+  }
+
+  String toJson() {
+    StringJoiner json = new StringJoiner(",\n", "[\n", "\n]\n");
+    for (Map.Entry<List<String>, Map<String, Double>> entry : getValues().entrySet()) {
+      StringJoiner object = new StringJoiner(", ", "  {", "}");
+      for (int i = 0; i < DIMENSIONS.size(); ++i) {
+        object.add(String.format("\"%s\": \"%s\"", DIMENSIONS.get(i), escapeJson(entry.getKey().get(i))));
+      }
+      for (Map.Entry<String, Double> value : entry.getValue().entrySet()) {
+        object.add(String.format("\"%s\": %s", value.getKey(), format(value.getValue())));
+      }
+      json.add(object.toString());
+    }
+    return json.toString();
+  }
+
+  private static String format(double value) {
+    return value == Math.rint(value) ? String.valueOf((long) value) : String.format(Locale.ROOT, "%.3f", value);
+  }
+
+  private static String escapeJson(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+
+  /**
+   * Writes the report and compares it to the baseline as configured by the system properties.
+   * Returns the descriptions of the regressions.
+   */
+  List<String> writeAndCompare() throws IOException {
+    String prefix = System.getProperty(REPORT_PROPERTY,
+        Paths.get(System.getProperty("java.io.tmpdir"), "columnindexfiltering-latency").toString());
+    String csv = toCsv();
+    write(Paths.get(prefix + ".csv"), csv);
+    write(Paths.get(prefix + ".json"), toJson());
+    LOGGER.info("Query latencies (written to {}.csv and {}.json):\n{}", prefix, prefix, csv);
+    String baseline = System.getProperty(BASELINE_PROPERTY);
+    if (baseline == null) {
+      return new ArrayList<>();
+    }
+    return findRegressions(readCsv(Paths.get(baseline)),
+        Double.parseDouble(System.getProperty(MAX_REGRESSION_PROPERTY, "0.25")),
+        Double.parseDouble(System.getProperty(MIN_REGRESSION_MS_PROPERTY, "1")));
+  }
+
+  private static void write(Path path, String content) throws IOException {
+    if (path.getParent() != null) {
+      Files.createDirectories(path.getParent());
+    }
+    try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      writer.write(content);
+    }
+  }
+
+  /**
+   * Reads a CSV report; the keys are the values of the dimensions.
+   */
+  static Map<List<String>, Map<String, Double>> readCsv(Path path) throws IOException {
+    Map<List<String>, Map<String, Double>> values = new HashMap<>();
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      String headerLine = reader.readLine();
+      if (headerLine == null) {
+        return values;
+      }
+      String[] header = headerLine.split(",");
+      if (header.length < DIMENSIONS.size() || !asList(header).subList(0, DIMENSIONS.size()).equals(DIMENSIONS)) {
+        throw new IllegalArgumentException(
+            String.format("The dimensions of %s are not %s: %s", path, DIMENSIONS, headerLine));
+      }
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        String[] fields = line.split(",");
+        Map<String, Double> row = new HashMap<>();
+        for (int i = DIMENSIONS.size(); i < header.length && i < fields.length; ++i) {
+          row.put(header[i], Double.valueOf(fields[i]));
+        }
+        values.put(asList(fields).subList(0, DIMENSIONS.size()), row);
+      }
+    }
+    return values;
+  }
+
+  List<String> findRegressions(Map<List<String>, Map<String, Double>> baseline, double maxRegression,
+      double minRegressionMs) {
+    List<String> regressions = new ArrayList<>();
+    int missing = 0;
+    for (Map.Entry<List<String>, Map<String, Double>> entry : getValues().entrySet()) {
+      Map<String, Double> expected = baseline.get(entry.getKey());
+      if (expected == null) {
+        ++missing;
+        continue;
+      }
+      for (String name : COMPARED) {
+        Double before = expected.get(name);
+        double now = entry.getValue().get(name);
+        if (before != null && now > before * (1 + maxRegression) && now - before > minRegressionMs) {
+          regressions.add(String.format("%s %s: %s ms -> %s ms (+%.0f%%)", entry.getKey(), name, format(before),
+              format(now), (now / Math.max(before, 1e-3) - 1) * 100));
+        }
+      }
+    }
+    if (missing > 0) {
+      LOGGER.info("{} latency entries are not in the baseline.", missing);
+    }
+    return regressions;
+  }
+}
@@ -0,0 +1,469 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.HadoopReadOptions;
+import org.apache.parquet.ParquetReadOptions;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.NanoTime;
+import org.apache.parquet.example.data.simple.convert.GroupRecordConverter;
+import org.apache.parquet.filter2.compat.FilterCompat;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnPath;
+import org.apache.parquet.internal.column.columnindex.OffsetIndex;
+import org.apache.parquet.internal.filter2.columnindex.ColumnIndexFilter;
+import org.apache.parquet.internal.filter2.columnindex.RowRanges;
+import org.apache.parquet.io.ColumnIOFactory;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.MessageColumnIO;
+import org.apache.parquet.io.RecordReader;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Types;
+import org.apache.parquet.schema.Types.GroupBuilder;
+
+import com.cloudera.cdh.test.common.Component;
+import com.cloudera.cdh.test.common.Editable;
+import com.cloudera.cdh.test.common.SQLTextQueryable;
+
+/**
+ * Executes the queries of the test in-process using parquet-mr, without a cluster.
+ *
+ * Tables are registered by the {@code CREATE EXTERNAL TABLE} statements of the test and are visible
+ * to every instance. Queries read the files of the table with {@link ParquetFileReader}; if predicate
+ * pushdown is enabled the WHERE clause is pushed down through {@link FilterCompat}, so row groups
+ * and pages are dropped using the statistics, dictionaries and column indexes. The WHERE clause is
+ * evaluated on every returned row regardless, so pushdown can only make a difference in the results
+ * if pruning is incorrect. The page level I/O of every query is recorded in {@link PageIoStats}.
+ *
+ * The client reports the component it stands in for, so the unsupported column types of that
+ * component are skipped the same way as with the real one.
+ */
+class LocalParquetClient implements SQLTextQueryable, Editable {
+  private static final Pattern CREATE_TABLE = Pattern.compile(
+      "CREATE EXTERNAL TABLE\\s+(\\S+)\\s*\\((.*)\\)\\s*STORED AS PARQUET\\s*LOCATION\\s+'([^']*)'",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+  private static final Pattern COLUMN_DEFINITION =
+      Pattern.compile("(\\w+)\\s+(\\w+(?:\\(\\s*\\d+\\s*,\\s*\\d+\\s*\\))?)");
+  private static final Pattern DROP_TABLE =
+      Pattern.compile("DROP TABLE\\s+(?:IF EXISTS\\s+)?(\\S+)", Pattern.CASE_INSENSITIVE);
+
+  private static final Map<String, LocalTable> catalog = new ConcurrentHashMap<>();
+
+  private final Component component;
+  private final Configuration conf;
+  private volatile boolean predicatePushdown = true;
+
+  /**
+   * The filtering mechanisms of parquet-mr the predicates can be pushed down to. Bloom filters are
+   * not listed as the reader API of parquet-mr 1.11 can not use them.
+   */
+  enum FilterLayer {
+    STATISTICS,
+    DICTIONARY,
+    COLUMN_INDEX
+  }
+
+  static class LocalTable {
+    final Path location;
+    // Keyed by the references used in the queries, including the repeated siblings of nested columns
+    final Map<String, ColumnHelper> columns;
+    final Nesting nesting;
+
+    LocalTable(Path location, Map<String, ColumnHelper> columns, Nesting nesting) {
+      this.location = location;
+      this.columns = columns;
+      this.nesting = nesting;
+    }
+  }
+
+  public LocalParquetClient(Component component) {
+    this(component, new Configuration());
+  }
+
+  public LocalParquetClient(Component component, Configuration conf) {
+    this.component = component;
+    this.conf = conf;
+  }
+
+  @Override
+  public Component getComponent() {
+    return component;
+  }
+
+  @Override
+  public void setPredicatePushdown(boolean enabled) {
+    predicatePushdown = enabled;
+  }
+
+  @Override
+  public void executeSqlUpdate(String sql) {
+    Matcher create = CREATE_TABLE.matcher(sql.trim());
+    if (create.matches()) {
+      Map<String, ColumnHelper> helpersByName = new HashMap<>();
+      for (ColumnHelper helper : ColumnHelper.values()) {
+        helpersByName.put(helper.getColumnName(), helper);
+      }
+      List<ColumnHelper> helpers = new ArrayList<>();
+      Nesting nesting = Nesting.FLAT;
+      Matcher column = COLUMN_DEFINITION.matcher(create.group(2));
+      while (column.find()) {
+        String name = column.group(1).toLowerCase(Locale.ROOT);
+        String type = column.group(2).toUpperCase(Locale.ROOT);
+        if (helpersByName.containsKey(name)) {
+          helpers.add(helpersByName.get(name));
+          if (type.equals("STRUCT") && nesting == Nesting.FLAT) {
+            nesting = Nesting.STRUCT;
+          }
+        } else if (type.equals("ARRAY")) {
+          nesting = Nesting.LIST;
+        } else if (type.equals("MAP")) {
+          nesting = Nesting.MAP;
+        }
+      }
+      Map<String, ColumnHelper> columns = new HashMap<>();
+      for (ColumnHelper helper : helpers) {
+        columns.put(nesting.getReference(helper), helper);
+        if (nesting.hasSibling()) {
+          columns.put(nesting.getSiblingColumnName(helper), helper);
+        }
+      }
+      catalog.put(normalize(create.group(1)), new LocalTable(new Path(create.group(3)), columns, nesting));
+      return;
+    }
+    Matcher drop = DROP_TABLE.matcher(sql.trim());
+    if (drop.matches()) {
+      catalog.remove(normalize(drop.group(1)));
+      return;
+    }
+    throw new UnsupportedOperationException("Unsupported statement: " + sql);
+  }
+
+  @Override
+  public List<List<Object>> executeTextQueryReturningObjects(String query) {
+    return executeQuery(query, predicatePushdown, new PageIoStats());
+  }
+
+  List<List<Object>> executeQuery(String query, boolean pushdown, PageIoStats stats) {
+    return executeQuery(query, pushdown ? EnumSet.allOf(FilterLayer.class) : EnumSet.noneOf(FilterLayer.class),
+        stats);
+  }
+
+  /**
+   * Executes the query pushing down the predicate only to the specified filtering mechanisms.
+   */
+  List<List<Object>> executeQuery(String query, Set<FilterLayer> layers, PageIoStats stats) {
+    LocalTable table = getTable(query);
+    List<InputFile> files;
+    try {
+      files = openFiles(table);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return executeQuery(LocalQuery.parse(query, table.columns), table.columns, table.nesting, files, layers,
+        stats);
+  }
+
+  /**
+   * Executes the query on the specified files, which do not have to belong to a registered table.
+   */
+  List<List<Object>> executeQuery(LocalQuery parsed, Map<String, ColumnHelper> columns, Nesting nesting,
+      List<InputFile> files, Set<FilterLayer> layers, PageIoStats stats) {
+    long cpuStart = getCurrentThreadCpuTime();
+    try {
+      List<List<Object>> rows = new ArrayList<>();
+      for (InputFile file : files) {
+        readFile(file, parsed, columns, nesting, layers, stats, rows);
+      }
+      long cpuEnd = getCurrentThreadCpuTime();
+      if (cpuStart >= 0 && cpuEnd >= 0) {
+        stats.addCpuTime(cpuEnd - cpuStart);
+      }
+      if (parsed.getOrderBy() != null) {
+        final int index = parsed.getSelectIndex(parsed.getOrderBy());
+        if (index < 0) {
+          throw new IllegalArgumentException("ORDER BY column must be selected: " + parsed.getOrderBy());
+        }
+        Collections.sort(rows, new Comparator<List<Object>>() {
+          @Override
+          public int compare(List<Object> a, List<Object> b) {
+            Object x = a.get(index);
+            Object y = b.get(index);
+            // NULLs first
+            if (x == null || y == null) {
+              return x == null ? (y == null ? 0 : -1) : 1;
+            }
+            return FilterExpression.compareValues(x, y);
+          }
+        });
+      }
+      return rows;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns the CPU time of the current thread in nanoseconds or -1 if it is not supported.
+   */
+  private static long getCurrentThreadCpuTime() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+  }
+
+  private LocalTable getTable(String query) {
+    List<String> tokens = LocalQuery.tokenize(query);
+    int from = -1;
+    for (int i = 0; i < tokens.size(); ++i) {
+      if (tokens.get(i).equalsIgnoreCase("FROM")) {
+        from = i;
+        break;
+      }
+    }
+    if (from < 0 || from + 1 >= tokens.size()) {
+      throw new IllegalArgumentException("Missing FROM clause in query: " + query);
+    }
+    LocalTable table = catalog.get(normalize(tokens.get(from + 1)));
+    if (table == null) {
+      throw new IllegalArgumentException("Unknown table in query: " + query);
+    }
+    return table;
+  }
+
+  /**
+   * Opens the data files of the registered table for reading.
+   */
+  List<InputFile> openTableFiles(String tableName) throws IOException {
+    LocalTable table = catalog.get(normalize(tableName));
+    if (table == null) {
+      throw new IllegalArgumentException("Unknown table: " + tableName);
+    }
+    return openFiles(table);
+  }
+
+  private List<InputFile> openFiles(LocalTable table) throws IOException {
+    List<InputFile> files = new ArrayList<>();
+    for (Path file : listFiles(table.location)) {
+      files.add(MappedInputFile.open(file, conf));
+    }
+    return files;
+  }
+
+  List<Path> listFiles(Path location) throws IOException {
+    FileSystem fs = location.getFileSystem(conf);
+    List<Path> files = new ArrayList<>();
+    for (FileStatus status : fs.listStatus(location)) {
+      String name = status.getPath().getName();
+      if (status.isFile() && !name.startsWith(".") && !name.startsWith("_")) {
+        files.add(status.getPath());
+      }
+    }
+    Collections.sort(files);
+    return files;
+  }
+
+  private void readFile(InputFile file, LocalQuery query, Map<String, ColumnHelper> columns, Nesting nesting,
+      Set<FilterLayer> layers, PageIoStats stats, List<List<Object>> rows) throws IOException {
+    FilterExpression where = query.getWhere();
+    FilterPredicate predicate = where == null ? null : where.toFilterPredicate(nesting);
+    boolean pushdown = !layers.isEmpty() && predicate != null;
+    boolean columnIndexFilter = pushdown && layers.contains(FilterLayer.COLUMN_INDEX);
+    ParquetReadOptions options = HadoopReadOptions.builder(conf)
+        .withRecordFilter(pushdown ? FilterCompat.get(predicate) : FilterCompat.NOOP)
+        .useStatsFilter(pushdown && layers.contains(FilterLayer.STATISTICS))
+        .useDictionaryFilter(pushdown && layers.contains(FilterLayer.DICTIONARY))
+        .useColumnIndexFilter(columnIndexFilter)
+        // Rows are filtered by evaluating the WHERE clause
+        .useRecordFilter(false)
+        .build();
+    String fileName = new Path(file.toString()).getName();
+    try (ParquetFileReader reader = ParquetFileReader.open(file, options)) {
+      MessageType fileSchema = reader.getFooter().getFileMetaData().getSchema();
+      Set<String> projectedColumns = getProjectedColumns(query);
+      MessageType projection = project(fileSchema, projectedColumns);
+      reader.setRequestedSchema(projection);
+      MessageColumnIO columnIO = new ColumnIOFactory().getColumnIO(projection, fileSchema);
+
+      // Row groups dropped by the statistics and dictionary filters are not returned by getRowGroups()
+      List<BlockMetaData> blocks = reader.getRowGroups();
+      for (BlockMetaData block : reader.getFooter().getBlocks()) {
+        for (ColumnChunkMetaData chunk : block.getColumns()) {
+          if (projectedColumns.contains(chunk.getPath().toArray()[0])) {
+            OffsetIndex offsetIndex = reader.readOffsetIndex(chunk);
+            if (offsetIndex != null) {
+              stats.addTotalPages(offsetIndex.getPageCount());
+            }
+          }
+        }
+      }
+      for (int i = blocks.size(), n = reader.getFooter().getBlocks().size(); i < n; ++i) {
+        stats.addRowGroupSkipped();
+      }
+      Set<ColumnPath> paths = new HashSet<>();
+      for (ColumnDescriptor column : projection.getColumns()) {
+        paths.add(ColumnPath.get(column.getPath()));
+      }
+
+      for (BlockMetaData block : blocks) {
+        FileColumnIndexStore indexes = new FileColumnIndexStore(reader, block);
+        PageReadStore pages;
+        if (columnIndexFilter) {
+          RowRanges ranges = ColumnIndexFilter.calculateRowRanges(FilterCompat.get(predicate),
+              indexes, paths, block.getRowCount());
+          if (ranges.rowCount() == 0) {
+            // Nothing to read in this row group according to the column indexes
+            stats.addRowGroupSkipped();
+            reader.skipNextRowGroup();
+            continue;
+          }
+          stats.addRowGroupRead(fileName, block.getRowCount(), ranges.rowCount(), ranges.toString());
+          pages = reader.readNextFilteredRowGroup();
+        } else {
+          stats.addRowGroupRead(fileName, block.getRowCount(), block.getRowCount(), null);
+          pages = reader.readNextRowGroup();
+        }
+        RecordReader<Group> recordReader = columnIO.getRecordReader(
+            new CountingPageReadStore(pages, indexes, stats), new GroupRecordConverter(projection));
+        for (long i = 0, n = pages.getRowCount(); i < n; ++i) {
+          final Group group = recordReader.read();
+          FilterExpression.Row row = new FilterExpression.Row() {
+            @Override
+            public Object getValue(ColumnHelper column) {
+              return nesting.readValue(group, column);
+            }
+          };
+          if (where != null && !where.matches(row)) {
+            continue;
+          }
+          List<Object> values = new ArrayList<>(query.getSelectItems().size());
+          for (LocalQuery.SelectItem item : query.getSelectItems()) {
+            String name = item.getColumn();
+            if (name == null) {
+              values.add(item.getTag().matches(row) ? 1 : 0);
+            } else if (name.equals("id")) {
+              values.add(readId(group));
+            } else {
+              ColumnHelper column = columns.get(name);
+              values.add(name.equals(nesting.getSiblingColumnName(column)) ? nesting.readSibling(group, column)
+                  : nesting.readValue(group, column));
+            }
+          }
+          rows.add(values);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the top-level fields read by the query: the ones of the selected columns and of the
+   * conditions.
+   */
+  static Set<String> getProjectedColumns(LocalQuery query) {
+    Set<String> projectedColumns = new LinkedHashSet<>();
+    for (String column : query.getSelectedColumns()) {
+      int dot = column.indexOf('.');
+      projectedColumns.add(dot < 0 ? column : column.substring(0, dot));
+    }
+    List<FilterExpression> conditions = new ArrayList<>();
+    if (query.getWhere() != null) {
+      conditions.add(query.getWhere());
+    }
+    for (LocalQuery.SelectItem item : query.getSelectItems()) {
+      if (item.getTag() != null) {
+        conditions.add(item.getTag());
+      }
+    }
+    for (FilterExpression condition : conditions) {
+      for (ColumnHelper column : condition.getColumns()) {
+        projectedColumns.add(column.getColumnName());
+      }
+    }
+    return projectedColumns;
+  }
+
+  private static MessageType project(MessageType fileSchema, Set<String> columns) {
+    GroupBuilder<MessageType> builder = Types.buildMessage();
+    for (String column : columns) {
+      builder = builder.addField(fileSchema.getType(column));
+    }
+    return builder.named(fileSchema.getName());
+  }
+
+  private static Integer readId(Group group) {
+    return group.getFieldRepetitionCount("id") == 0 ? null : group.getInteger("id", 0);
+  }
+
+  /**
+   * Reads the value of the primitive field holding the values of the column.
+   */
+  static Object readValue(Group group, String name, ColumnHelper column) {
+    if (group.getFieldRepetitionCount(name) == 0) {
+      return null;
+    }
+    Object value;
+    PrimitiveType.PrimitiveTypeName type = column.getSchema().asPrimitiveType().getPrimitiveTypeName();
+    switch (type) {
+    case BOOLEAN:
+      value = group.getBoolean(name, 0);
+      break;
+    case INT32:
+      value = group.getInteger(name, 0);
+      break;
+    case INT64:
+      value = group.getLong(name, 0);
+      break;
+    case INT96:
+      value = NanoTime.fromBinary(group.getInt96(name, 0));
+      break;
+    case FLOAT:
+      value = group.getFloat(name, 0);
+      break;
+    case DOUBLE:
+      value = group.getDouble(name, 0);
+      break;
+    case BINARY:
+    case FIXED_LEN_BYTE_ARRAY:
+      value = group.getBinary(name, 0);
+      break;
+    default:
+      throw new IllegalArgumentException("Unsupported type for parquet read: " + type);
+    }
+    return column.fileFormatValueToValue(value);
+  }
+
+  private static String normalize(String tableName) {
+    return tableName.toLowerCase(Locale.ROOT);
+  }
+
+  @Override
+  public String toString() {
+    return "LocalParquetClient(" + component + ")";
+  }
+}
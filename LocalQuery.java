@@ -0,0 +1,330 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the queries generated by {@link ColumnIndexFiltering} so that they can be executed by
+ * {@link LocalParquetClient}. Only the shape of the generated queries is supported:
+ *
+ * <pre>
+ * SELECT item[, item...] FROM table [WHERE condition] [ORDER BY col]
+ *
+ * item: col | CASE WHEN condition THEN 1 ELSE 0 END [AS alias]
+ * condition: predicate | condition AND condition | condition OR condition | (condition)
+ * predicate: col op literal | col IS [NOT] NULL | col BETWEEN literal AND literal
+ *     | col IN (literal[, literal...])
+ * </pre>
+ *
+ * where a literal is NULL, TRUE, FALSE or {@code CAST('value' AS type)}.
+ */
+class LocalQuery {
+  private static final Pattern TOKEN = Pattern.compile(
+      "\\s*(?:('(?:[^']*)')|(<=|>=|!=|<>|[=<>(),])|([A-Za-z_][A-Za-z0-9_.]*|[-+]?[0-9][0-9.eE+-]*))");
+
+  /**
+   * An item of the select list: either a column or a condition returning 1 if it is TRUE and 0
+   * otherwise, which is used for tagging the rows matching the individual predicates.
+   */
+  static class SelectItem {
+    private final String column;
+    private final FilterExpression tag;
+
+    SelectItem(String column, FilterExpression tag) {
+      this.column = column;
+      this.tag = tag;
+    }
+
+    /**
+     * Returns the name of the selected column or {@code null} for tags.
+     */
+    public String getColumn() {
+      return column;
+    }
+
+    /**
+     * Returns the condition of the tag or {@code null} for columns.
+     */
+    public FilterExpression getTag() {
+      return tag;
+    }
+  }
+
+  private final List<SelectItem> selectItems;
+  private final FilterExpression where;
+  private final String orderBy;
+
+  private LocalQuery(List<SelectItem> selectItems, FilterExpression where, String orderBy) {
+    this.selectItems = selectItems;
+    this.where = where;
+    this.orderBy = orderBy;
+  }
+
+  public List<SelectItem> getSelectItems() {
+    return selectItems;
+  }
+
+  /**
+   * Returns the names of the selected columns, not including the tags.
+   */
+  public List<String> getSelectedColumns() {
+    List<String> columns = new ArrayList<>();
+    for (SelectItem item : selectItems) {
+      if (item.getColumn() != null) {
+        columns.add(item.getColumn());
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Returns the index of the column in the select list or -1 if it is not selected.
+   */
+  public int getSelectIndex(String column) {
+    for (int i = 0, n = selectItems.size(); i < n; ++i) {
+      if (column.equals(selectItems.get(i).getColumn())) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the WHERE clause or {@code null} if there is none.
+   */
+  public FilterExpression getWhere() {
+    return where;
+  }
+
+  /**
+   * Returns the ORDER BY column or {@code null} if there is none.
+   */
+  public String getOrderBy() {
+    return orderBy;
+  }
+
+  /**
+   * Parses the query resolving column references using the specified columns of the table.
+   */
+  public static LocalQuery parse(String query, Map<String, ColumnHelper> columns) {
+    return new Parser(query, columns).parseQuery();
+  }
+
+  /**
+   * Creates a query selecting the specified columns without parsing SQL text, so that any literal
+   * can be used in the WHERE clause.
+   */
+  static LocalQuery select(List<String> columns, FilterExpression where, String orderBy) {
+    List<SelectItem> items = new ArrayList<>();
+    for (String column : columns) {
+      items.add(new SelectItem(column, null));
+    }
+    return new LocalQuery(items, where, orderBy);
+  }
+
+  static List<String> tokenize(String text) {
+    List<String> tokens = new ArrayList<>();
+    Matcher matcher = TOKEN.matcher(text);
+    int pos = 0;
+    while (pos < text.length()) {
+      if (text.substring(pos).trim().isEmpty()) {
+        break;
+      }
+      if (!matcher.find(pos) || matcher.start() != pos) {
+        throw new IllegalArgumentException("Unexpected character at position " + pos + ": " + text);
+      }
+      tokens.add(matcher.group().trim());
+      pos = matcher.end();
+    }
+    return tokens;
+  }
+
+  static class Parser {
+    private final String query;
+    private final Map<String, ColumnHelper> columns;
+    private final List<String> tokens;
+    private int pos;
+
+    Parser(String query, Map<String, ColumnHelper> columns) {
+      this.query = query;
+      this.columns = columns;
+      tokens = tokenize(query);
+    }
+
+    LocalQuery parseQuery() {
+      expect("SELECT");
+      List<SelectItem> selected = new ArrayList<>();
+      do {
+        selected.add(parseSelectItem());
+      } while (accept(","));
+      expect("FROM");
+      // The table is resolved by the client before parsing
+      next();
+      FilterExpression where = null;
+      if (accept("WHERE")) {
+        where = parseExpression();
+      }
+      String orderBy = null;
+      if (accept("ORDER")) {
+        expect("BY");
+        orderBy = parseColumnName();
+      }
+      if (pos != tokens.size()) {
+        throw error("Unexpected token " + tokens.get(pos));
+      }
+      return new LocalQuery(Collections.unmodifiableList(selected), where, orderBy);
+    }
+
+    SelectItem parseSelectItem() {
+      if (!accept("CASE")) {
+        return new SelectItem(parseColumnName(), null);
+      }
+      expect("WHEN");
+      FilterExpression tag = parseExpression();
+      expect("THEN");
+      expect("1");
+      expect("ELSE");
+      expect("0");
+      expect("END");
+      if (accept("AS")) {
+        next();
+      }
+      return new SelectItem(null, tag);
+    }
+
+    FilterExpression parseExpression() {
+      FilterExpression expression = parseConjunction();
+      while (accept("OR")) {
+        expression = FilterExpression.or(expression, parseConjunction());
+      }
+      return expression;
+    }
+
+    FilterExpression parseConjunction() {
+      FilterExpression expression = parsePrimary();
+      while (accept("AND")) {
+        expression = FilterExpression.and(expression, parsePrimary());
+      }
+      return expression;
+    }
+
+    FilterExpression parsePrimary() {
+      if (accept("(")) {
+        FilterExpression expression = parseExpression();
+        expect(")");
+        return expression;
+      }
+      return parsePredicate();
+    }
+
+    FilterExpression parsePredicate() {
+      ColumnHelper column = parseColumn();
+      if (accept("IS")) {
+        boolean negated = accept("NOT");
+        expect("NULL");
+        return FilterExpression.isNull(column, negated);
+      }
+      if (accept("BETWEEN")) {
+        Object lower = parseLiteral(column);
+        expect("AND");
+        return FilterExpression.between(column, lower, parseLiteral(column));
+      }
+      if (accept("IN")) {
+        expect("(");
+        List<Object> values = new ArrayList<>();
+        do {
+          values.add(parseLiteral(column));
+        } while (accept(","));
+        expect(")");
+        return FilterExpression.in(column, values);
+      }
+      String operator = next();
+      switch (operator) {
+      case "=":
+      case "!=":
+      case "<>":
+      case "<":
+      case ">":
+      case "<=":
+      case ">=":
+        return FilterExpression.comparison(column, operator, parseLiteral(column));
+      default:
+        throw error("Unsupported operator " + operator);
+      }
+    }
+
+    Object parseLiteral(ColumnHelper column) {
+      String token = next();
+      switch (token.toUpperCase(Locale.ROOT)) {
+      case "NULL":
+        return null;
+      case "CAST":
+        expect("(");
+        String value = next();
+        if (!value.startsWith("'")) {
+          throw error("String literal expected instead of " + value);
+        }
+        expect("AS");
+        // The type can contain parameters like DECIMAL(9,2)
+        next();
+        if (accept("(")) {
+          while (!accept(")")) {
+            next();
+          }
+        }
+        expect(")");
+        return column.stringToValue(value.substring(1, value.length() - 1));
+      default:
+        return column.stringToValue(token.startsWith("'") ? token.substring(1, token.length() - 1) : token);
+      }
+    }
+
+    ColumnHelper parseColumn() {
+      String name = parseColumnName();
+      ColumnHelper column = columns.get(name);
+      if (column == null) {
+        throw error("Unknown column " + name);
+      }
+      return column;
+    }
+
+    String parseColumnName() {
+      return next().toLowerCase(Locale.ROOT);
+    }
+
+    String next() {
+      if (pos >= tokens.size()) {
+        throw error("Unexpected end of query");
+      }
+      return tokens.get(pos++);
+    }
+
+    boolean peek(String keyword) {
+      return pos < tokens.size() && tokens.get(pos).equalsIgnoreCase(keyword);
+    }
+
+    boolean accept(String keyword) {
+      if (peek(keyword)) {
+        ++pos;
+        return true;
+      }
+      return false;
+    }
+
+    void expect(String keyword) {
+      if (!accept(keyword)) {
+        throw error("Expected " + keyword);
+      }
+    }
+
+    IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " in query: " + query);
+    }
+  }
+}
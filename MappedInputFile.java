@@ -0,0 +1,168 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.SeekableInputStream;
+
+/**
+ * An {@link InputFile} reading a local file through a memory mapping, so that reading the footer,
+ * the indexes and the pages copies directly from the page cache without system calls.
+ *
+ * The file is mapped once and shared by the streams, which only keep their own position. Files
+ * held in the heap are read the same way through {@link #wrap(String, ByteBuffer)}.
+ */
+class MappedInputFile implements InputFile {
+  static final String PROPERTY = "columnindexfiltering.mmap";
+
+  private final String path;
+  private final ByteBuffer buffer;
+
+  private MappedInputFile(String path, ByteBuffer buffer) {
+    this.path = path;
+    this.buffer = buffer;
+  }
+
+  private static ByteBuffer map(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      // The mapping stays valid after the channel is closed
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  /**
+   * Opens the file memory mapped if {@value #PROPERTY} is set, the file is on the local file system
+   * and it fits in a single mapping; otherwise through the Hadoop file system.
+   */
+  static InputFile open(Path file, Configuration conf) throws IOException {
+    if (Boolean.getBoolean(PROPERTY) && "file".equals(file.toUri().getScheme())) {
+      File localFile = new File(file.toUri().getPath());
+      if (localFile.length() <= Integer.MAX_VALUE) {
+        return new MappedInputFile(localFile.getPath(), map(localFile));
+      }
+    }
+    return HadoopInputFile.fromPath(file, conf);
+  }
+
+  /**
+   * Reads the remaining bytes of the buffer as a file, e.g. the content of an
+   * {@link InMemoryOutputFile}.
+   */
+  static InputFile wrap(String name, ByteBuffer buffer) {
+    return new MappedInputFile(name, buffer.slice());
+  }
+
+  @Override
+  public long getLength() {
+    return buffer.capacity();
+  }
+
+  @Override
+  public SeekableInputStream newStream() {
+    return new MappedInputStream(buffer.duplicate());
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+
+  private static class MappedInputStream extends SeekableInputStream {
+    private final ByteBuffer buffer;
+
+    MappedInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public long getPos() {
+      return buffer.position();
+    }
+
+    @Override
+    public void seek(long newPos) throws IOException {
+      if (newPos < 0 || newPos > buffer.limit()) {
+        throw new EOFException("Cannot seek to " + newPos + " in a file of " + buffer.limit() + " bytes");
+      }
+      buffer.position((int) newPos);
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int start, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(len, buffer.remaining());
+      buffer.get(bytes, start, n);
+      return n;
+    }
+
+    @Override
+    public void readFully(byte[] bytes) throws IOException {
+      readFully(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void readFully(byte[] bytes, int start, int len) throws IOException {
+      if (len > buffer.remaining()) {
+        throw new EOFException("Reached the end of the file with " + (len - buffer.remaining()) + " bytes left");
+      }
+      buffer.get(bytes, start, len);
+    }
+
+    @Override
+    public int read(ByteBuffer buf) {
+      if (!buffer.hasRemaining()) {
+        return buf.hasRemaining() ? -1 : 0;
+      }
+      int n = Math.min(buf.remaining(), buffer.remaining());
+      copy(buf, n);
+      return n;
+    }
+
+    @Override
+    public void readFully(ByteBuffer buf) throws IOException {
+      if (buf.remaining() > buffer.remaining()) {
+        throw new EOFException(
+            "Reached the end of the file with " + (buf.remaining() - buffer.remaining()) + " bytes left");
+      }
+      copy(buf, buf.remaining());
+    }
+
+    private void copy(ByteBuffer target, int n) {
+      ByteBuffer slice = buffer.slice();
+      slice.limit(n);
+      target.put(slice);
+      buffer.position(buffer.position() + n);
+    }
+
+    @Override
+    public long skip(long n) {
+      int skipped = (int) Math.max(Math.min(n, buffer.remaining()), 0);
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
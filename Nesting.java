@@ -0,0 +1,318 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+import org.apache.parquet.schema.Types;
+
+import com.cloudera.cdh.tests.parquet.columnindexfiltering.ColumnHelper.PrimitiveEncoder;
+
+/**
+ * How the values of the columns are nested in the files of a fixture.
+ *
+ * The leaves of nested columns have their own pages, whose boundaries and first row indexes in the
+ * offset index are independent of the other columns, so the row ranges selected by the filtered
+ * column map to different pages in its siblings. parquet-mr 1.11 can not push down predicates on
+ * repeated columns, therefore the predicates are always on a non-repeated leaf and the repeated
+ * values are only read through the row ranges of that leaf.
+ */
+enum Nesting {
+  /**
+   * The columns of the test plan: optional primitive fields of the record.
+   */
+  FLAT,
+  /**
+   * Every value is the only field of an optional struct, e.g. {@code int32_col.value}.
+   */
+  STRUCT,
+  /**
+   * Like {@link #STRUCT}, and every column has a sibling list column (e.g. {@code int32_col_list})
+   * with the value repeated 1 to 3 times depending on the ID. The fixtures are written with pages
+   * limited by size only (see {@link WriterSettings#forNesting(Nesting)}), so the pages of the list
+   * sibling hold fewer rows than the ones of the struct leaf.
+   */
+  LIST,
+  /**
+   * Like {@link #LIST}, but the sibling is a map (e.g. {@code int32_col_map}) from the keys 0 to 2
+   * to the value. The map values are optional: in the rows where the column is NULL the map still
+   * has its entries, with NULL values, so the map value leaf holds every NULL of the test plan.
+   */
+  MAP;
+
+  private static final String STRUCT_FIELD = "value";
+  private static final String LIST_FIELD = "list";
+  private static final String ELEMENT_FIELD = "element";
+  private static final String LIST_SUFFIX = "_list";
+  private static final String KEY_VALUE_FIELD = "key_value";
+  private static final String KEY_FIELD = "key";
+  private static final String VALUE_FIELD = "value";
+  private static final String MAP_SUFFIX = "_map";
+  private static final int MAX_ELEMENTS = 3;
+
+  /**
+   * Returns the top-level fields of the column; the repeated sibling directly follows the struct.
+   */
+  List<Type> getFields(ColumnHelper column) {
+    List<Type> fields = new ArrayList<>();
+    if (this == FLAT) {
+      fields.add(column.getSchema());
+      return fields;
+    }
+    fields.add(Types.optionalGroup()
+        .addField(rename(column, STRUCT_FIELD))
+        .named(column.getColumnName()));
+    if (this == LIST) {
+      fields.add(Types.optionalGroup().as(OriginalType.LIST)
+          .addField(Types.repeatedGroup().addField(rename(column, ELEMENT_FIELD)).named(LIST_FIELD))
+          .named(getSiblingColumnName(column)));
+    } else if (this == MAP) {
+      fields.add(Types.optionalGroup().as(OriginalType.MAP)
+          .addField(Types.repeatedGroup()
+              .required(PrimitiveType.PrimitiveTypeName.INT32).named(KEY_FIELD)
+              .addField(rename(column, VALUE_FIELD))
+              .named(KEY_VALUE_FIELD))
+          .named(getSiblingColumnName(column)));
+    }
+    return fields;
+  }
+
+  private static Type rename(ColumnHelper column, String name) {
+    PrimitiveType type = column.getSchema().asPrimitiveType();
+    return new PrimitiveType(type.getRepetition(), type.getPrimitiveTypeName(), type.getTypeLength(), name,
+        type.getOriginalType(), type.getDecimalMetadata(), type.getId());
+  }
+
+  /**
+   * Returns the column definitions of the column for {@code CREATE TABLE}.
+   */
+  String getSqlColumns(ColumnHelper column) {
+    switch (this) {
+    case STRUCT:
+      return String.format("%s STRUCT<%s:%s>", column.getColumnName(), STRUCT_FIELD, column.getSqlType());
+    case LIST:
+      return String.format("%s STRUCT<%s:%s>, %s ARRAY<%s>", column.getColumnName(), STRUCT_FIELD,
+          column.getSqlType(), getSiblingColumnName(column), column.getSqlType());
+    case MAP:
+      return String.format("%s STRUCT<%s:%s>, %s MAP<INT,%s>", column.getColumnName(), STRUCT_FIELD,
+          column.getSqlType(), getSiblingColumnName(column), column.getSqlType());
+    default:
+      return column.getColumnName() + ' ' + column.getSqlType();
+    }
+  }
+
+  /**
+   * Returns the SQL expression of the values of the column, which is used in the predicates.
+   */
+  String getReference(ColumnHelper column) {
+    return this == FLAT ? column.getColumnName() : column.getColumnName() + '.' + STRUCT_FIELD;
+  }
+
+  /**
+   * Returns the items the queries select for the column: the reference and the repeated sibling.
+   */
+  String getSelectList(ColumnHelper column) {
+    return hasSibling() ? getReference(column) + ", " + getSiblingColumnName(column) : getReference(column);
+  }
+
+  /**
+   * Returns the dot separated path of the leaf the predicates on the column are pushed down to.
+   */
+  String getLeafPath(ColumnHelper column) {
+    return getReference(column);
+  }
+
+  /**
+   * Returns whether every column has a repeated sibling, i.e. a list or a map.
+   */
+  boolean hasSibling() {
+    return this == LIST || this == MAP;
+  }
+
+  /**
+   * Returns the dot separated path of the leaf of the repeated sibling that holds the values.
+   */
+  String getSiblingLeafPath(ColumnHelper column) {
+    return this == MAP ? getSiblingColumnName(column) + '.' + KEY_VALUE_FIELD + '.' + VALUE_FIELD
+        : getSiblingColumnName(column) + '.' + LIST_FIELD + '.' + ELEMENT_FIELD;
+  }
+
+  /**
+   * Returns the name of the repeated sibling of the column or {@code null} if it has none.
+   */
+  String getSiblingColumnName(ColumnHelper column) {
+    return getSiblingColumnName(column.getColumnName());
+  }
+
+  private String getSiblingColumnName(String name) {
+    switch (this) {
+    case LIST:
+      return name + LIST_SUFFIX;
+    case MAP:
+      return name + MAP_SUFFIX;
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * The number of elements of the repeated sibling in the row of the specified ID.
+   */
+  static int getElementCount(int id) {
+    return 1 + Math.floorMod(id, MAX_ELEMENTS);
+  }
+
+  /**
+   * Writes the value of the column, given in its primitive form; {@code index} is the index of its
+   * first field in the record.
+   */
+  void write(RecordConsumer consumer, String name, int index, PrimitiveEncoder encoder, long value, int id) {
+    consumer.startField(name, index);
+    if (this == FLAT) {
+      encoder.append(consumer, value);
+    } else {
+      consumer.startGroup();
+      consumer.startField(STRUCT_FIELD, 0);
+      encoder.append(consumer, value);
+      consumer.endField(STRUCT_FIELD, 0);
+      consumer.endGroup();
+    }
+    consumer.endField(name, index);
+    if (this == LIST) {
+      String listName = getSiblingColumnName(name);
+      consumer.startField(listName, index + 1);
+      consumer.startGroup();
+      consumer.startField(LIST_FIELD, 0);
+      for (int i = 0, n = getElementCount(id); i < n; ++i) {
+        consumer.startGroup();
+        consumer.startField(ELEMENT_FIELD, 0);
+        encoder.append(consumer, value);
+        consumer.endField(ELEMENT_FIELD, 0);
+        consumer.endGroup();
+      }
+      consumer.endField(LIST_FIELD, 0);
+      consumer.endGroup();
+      consumer.endField(listName, index + 1);
+    } else if (this == MAP) {
+      writeMap(consumer, name, index, encoder, value, id, false);
+    }
+  }
+
+  /**
+   * Writes what a NULL value of the column leaves in the record: the map sibling with NULL values.
+   */
+  void writeNull(RecordConsumer consumer, String name, int index, int id) {
+    if (this == MAP) {
+      writeMap(consumer, name, index, null, 0, id, true);
+    }
+  }
+
+  private void writeMap(RecordConsumer consumer, String name, int index, PrimitiveEncoder encoder, long value,
+      int id, boolean isNull) {
+    String mapName = getSiblingColumnName(name);
+    consumer.startField(mapName, index + 1);
+    consumer.startGroup();
+    consumer.startField(KEY_VALUE_FIELD, 0);
+    for (int i = 0, n = getElementCount(id); i < n; ++i) {
+      consumer.startGroup();
+      consumer.startField(KEY_FIELD, 0);
+      consumer.addInteger(i);
+      consumer.endField(KEY_FIELD, 0);
+      if (!isNull) {
+        consumer.startField(VALUE_FIELD, 1);
+        encoder.append(consumer, value);
+        consumer.endField(VALUE_FIELD, 1);
+      }
+      consumer.endGroup();
+    }
+    consumer.endField(KEY_VALUE_FIELD, 0);
+    consumer.endGroup();
+    consumer.endField(mapName, index + 1);
+  }
+
+  /**
+   * Adds the value of the column, already converted to the file format, to the record.
+   */
+  void addToGroup(Group record, ColumnHelper column, Object value, int id) {
+    int index = record.getType().getFieldIndex(column.getColumnName());
+    if (this == FLAT) {
+      ColumnIndexFiltering.addValueToGroup(record, index, value);
+      return;
+    }
+    ColumnIndexFiltering.addValueToGroup(record.addGroup(index), 0, value);
+    if (this == LIST) {
+      Group list = record.addGroup(index + 1);
+      for (int i = 0, n = getElementCount(id); i < n; ++i) {
+        ColumnIndexFiltering.addValueToGroup(list.addGroup(0), 0, value);
+      }
+    } else if (this == MAP) {
+      addMapToGroup(record, index, value, id);
+    }
+  }
+
+  /**
+   * Adds what a NULL value of the column leaves in the record: the map sibling with NULL values.
+   */
+  void addNullToGroup(Group record, ColumnHelper column, int id) {
+    if (this == MAP) {
+      addMapToGroup(record, record.getType().getFieldIndex(column.getColumnName()), null, id);
+    }
+  }
+
+  private static void addMapToGroup(Group record, int index, Object value, int id) {
+    Group map = record.addGroup(index + 1);
+    for (int i = 0, n = getElementCount(id); i < n; ++i) {
+      Group entry = map.addGroup(0);
+      entry.add(0, i);
+      if (value != null) {
+        ColumnIndexFiltering.addValueToGroup(entry, 1, value);
+      }
+    }
+  }
+
+  /**
+   * Reads the value of the column from the record or returns {@code null} if it is NULL.
+   */
+  Object readValue(Group record, ColumnHelper column) {
+    String name = column.getColumnName();
+    if (this == FLAT) {
+      return LocalParquetClient.readValue(record, name, column);
+    }
+    if (record.getFieldRepetitionCount(name) == 0) {
+      return null;
+    }
+    return LocalParquetClient.readValue(record.getGroup(name, 0), STRUCT_FIELD, column);
+  }
+
+  /**
+   * Reads the repeated sibling of the column, the elements of a list or the entries of a map, or
+   * returns {@code null} if it is NULL.
+   */
+  Object readSibling(Group record, ColumnHelper column) {
+    String name = getSiblingColumnName(column);
+    if (record.getFieldRepetitionCount(name) == 0) {
+      return null;
+    }
+    Group sibling = record.getGroup(name, 0);
+    if (this == MAP) {
+      Map<Integer, Object> entries = new LinkedHashMap<>();
+      for (int i = 0, n = sibling.getFieldRepetitionCount(KEY_VALUE_FIELD); i < n; ++i) {
+        Group entry = sibling.getGroup(KEY_VALUE_FIELD, i);
+        entries.put(entry.getInteger(KEY_FIELD, 0), LocalParquetClient.readValue(entry, VALUE_FIELD, column));
+      }
+      return entries;
+    }
+    List<Object> elements = new ArrayList<>();
+    for (int i = 0, n = sibling.getFieldRepetitionCount(LIST_FIELD); i < n; ++i) {
+      elements.add(LocalParquetClient.readValue(sibling.getGroup(LIST_FIELD, i), ELEMENT_FIELD, column));
+    }
+    return elements;
+  }
+}
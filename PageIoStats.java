@@ -0,0 +1,127 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Page level I/O counters of a query executed by {@link LocalParquetClient}.
+ *
+ * Pages are counted per column of the projection. Skipped pages are the pages of the projected
+ * columns, according to the offset indexes, that were not read either because their row group was
+ * dropped or because column index filtering excluded them.
+ *
+ * The bytes read are the compressed sizes of the pages read, including their headers, according to
+ * the offset indexes and the column chunk metadata. The uncompressed size of the pages read is the
+ * number of bytes decompressed for compressed files. The CPU time is the one of the thread
+ * executing the query, including decompression and decoding.
+ */
+class PageIoStats {
+  private long rowGroupsRead;
+  private long rowGroupsSkipped;
+  private long pagesRead;
+  private long totalPages;
+  private long bytesRead;
+  private long uncompressedBytesRead;
+  private long cpuNanos;
+  private long rowsInRowGroupsRead;
+  private long rowsInRowRanges;
+  private final Map<String, Long> pagesReadByColumn = new TreeMap<>();
+  private final List<String> rowRanges = new ArrayList<>();
+
+  synchronized void addPageRead(String column, long compressedSize, long uncompressedSize) {
+    ++pagesRead;
+    bytesRead += compressedSize;
+    uncompressedBytesRead += uncompressedSize;
+    Long pages = pagesReadByColumn.get(column);
+    pagesReadByColumn.put(column, pages == null ? 1 : pages + 1);
+  }
+
+  synchronized void addDictionaryPageRead(long compressedSize, long uncompressedSize) {
+    bytesRead += compressedSize;
+    uncompressedBytesRead += uncompressedSize;
+  }
+
+  synchronized void addCpuTime(long nanos) {
+    cpuNanos += nanos;
+  }
+
+  synchronized void addTotalPages(long pages) {
+    totalPages += pages;
+  }
+
+  synchronized void addRowGroupSkipped() {
+    ++rowGroupsSkipped;
+  }
+
+  /**
+   * Registers a row group that was read; {@code ranges} is the description of the row ranges
+   * selected by column index filtering or {@code null} if the whole row group was read.
+   */
+  synchronized void addRowGroupRead(String file, long rowCount, long selectedRowCount, String ranges) {
+    ++rowGroupsRead;
+    rowsInRowGroupsRead += rowCount;
+    rowsInRowRanges += selectedRowCount;
+    if (ranges != null) {
+      rowRanges.add(file + ": " + ranges);
+    }
+  }
+
+  public synchronized long getRowGroupsRead() {
+    return rowGroupsRead;
+  }
+
+  public synchronized long getRowGroupsSkipped() {
+    return rowGroupsSkipped;
+  }
+
+  public synchronized long getPagesRead() {
+    return pagesRead;
+  }
+
+  public synchronized long getPagesSkipped() {
+    return Math.max(totalPages - pagesRead, 0);
+  }
+
+  /**
+   * Returns the ratio of the pages of the projected columns that were not read, between 0 and 1.
+   */
+  public synchronized double getPruningRatio() {
+    return totalPages == 0 ? 0 : (double) getPagesSkipped() / totalPages;
+  }
+
+  public synchronized long getUncompressedBytesRead() {
+    return uncompressedBytesRead;
+  }
+
+  /**
+   * Returns the CPU time of the query in nanoseconds or 0 if the JVM does not measure it.
+   */
+  public synchronized long getCpuNanos() {
+    return cpuNanos;
+  }
+
+  public synchronized Map<String, Long> getPagesReadByColumn() {
+    return new TreeMap<>(pagesReadByColumn);
+  }
+
+  /**
+   * Whether the statistics or the column indexes allowed dropping anything for the filter: either a
+   * whole row group or some rows of a row group, which always means at least one page of the
+   * filtered column.
+   */
+  public synchronized boolean isPruned() {
+    return rowGroupsSkipped > 0 || rowsInRowRanges < rowsInRowGroupsRead;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "row groups read/skipped: %d/%d, pages read/skipped: %d/%d (pruning ratio: %.3f), bytes read: %d, "
+        + "bytes uncompressed: %d, CPU time: %.3f ms, row ranges: %s",
+        rowGroupsRead, rowGroupsSkipped, pagesRead, getPagesSkipped(), getPruningRatio(), bytesRead,
+        uncompressedBytesRead, cpuNanos / 1e6, rowRanges);
+  }
+}
@@ -0,0 +1,57 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runners.Parameterized;
+import org.junit.runners.model.RunnerScheduler;
+
+/**
+ * A {@link Parameterized} runner that executes the parameter sets concurrently if the
+ * {@value #THREADS_PROPERTY} system property is greater than 1. Otherwise it behaves exactly like
+ * {@link Parameterized}.
+ *
+ * The tests themselves are responsible for limiting the load on the individual components, see
+ * {@link ComponentThrottle}.
+ */
+public class ParallelParameterized extends Parameterized {
+  static final String THREADS_PROPERTY = "columnindexfiltering.parallel.threads";
+
+  public ParallelParameterized(Class<?> klass) throws Throwable {
+    super(klass);
+    int threads = getThreadCount();
+    if (threads > 1) {
+      setScheduler(new ExecutorScheduler(threads));
+    }
+  }
+
+  static int getThreadCount() {
+    return Integer.getInteger(THREADS_PROPERTY, 1);
+  }
+
+  private static class ExecutorScheduler implements RunnerScheduler {
+    private final ExecutorService executor;
+
+    ExecutorScheduler(int threads) {
+      executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @Override
+    public void schedule(Runnable childStatement) {
+      executor.execute(childStatement);
+    }
+
+    @Override
+    public void finished() {
+      executor.shutdown();
+      try {
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        executor.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
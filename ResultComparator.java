@@ -0,0 +1,98 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Compares two result sets row by row without converting them to strings.
+ *
+ * Only the rows around the first few differences are kept for the report, so the comparison itself
+ * needs no memory depending on the size of the results. The readers still return their results as
+ * materialized lists, which are compared through their iterators.
+ */
+class ResultComparator {
+  static final int MAX_REPORTED_DIFFERENCES = 5;
+
+  private ResultComparator() {
+  }
+
+  /**
+   * Returns {@code null} if the results are equal or a report of the first differences otherwise.
+   */
+  static String compare(Iterator<? extends List<?>> reference, Iterator<? extends List<?>> actual) {
+    List<String> differences = new ArrayList<>();
+    long differenceCount = 0;
+    long rowNo = 0;
+    List<?> previousRow = null;
+    while (reference.hasNext() || actual.hasNext()) {
+      List<?> referenceRow = reference.hasNext() ? reference.next() : null;
+      List<?> actualRow = actual.hasNext() ? actual.next() : null;
+      if (!rowsEqual(referenceRow, actualRow)) {
+        if (++differenceCount <= MAX_REPORTED_DIFFERENCES) {
+          StringBuilder builder = new StringBuilder("Row ").append(rowNo).append(":\n");
+          if (previousRow != null) {
+            builder.append("  previous:  ").append(rowToString(previousRow)).append('\n');
+          }
+          builder.append("  reference: ").append(rowToString(referenceRow)).append('\n');
+          builder.append("  actual:    ").append(rowToString(actualRow));
+          differences.add(builder.toString());
+        }
+      }
+      previousRow = referenceRow != null ? referenceRow : actualRow;
+      ++rowNo;
+    }
+    if (differenceCount == 0) {
+      return null;
+    }
+    StringJoiner report = new StringJoiner("\n");
+    report.add(String.format("%d of %d rows differ, showing the first %d:", differenceCount, rowNo,
+        Math.min(differenceCount, MAX_REPORTED_DIFFERENCES)));
+    for (String difference : differences) {
+      report.add(difference);
+    }
+    return report.toString();
+  }
+
+  static boolean rowsEqual(List<?> a, List<?> b) {
+    if (a == null || b == null) {
+      return a == b;
+    }
+    if (a.size() != b.size()) {
+      return false;
+    }
+    for (int i = 0, n = a.size(); i < n; ++i) {
+      if (!valuesEqual(a.get(i), b.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean valuesEqual(Object a, Object b) {
+    if (a == b) {
+      return true;
+    }
+    if (a == null || b == null) {
+      return false;
+    }
+    if (a instanceof byte[] && b instanceof byte[]) {
+      return Arrays.equals((byte[]) a, (byte[]) b);
+    }
+    return a.equals(b);
+  }
+
+  static String rowToString(List<?> row) {
+    if (row == null) {
+      return "<missing>";
+    }
+    StringJoiner line = new StringJoiner("\t");
+    for (Object value : row) {
+      line.add(value == null ? "NULL" : value.toString());
+    }
+    return line.toString();
+  }
+}
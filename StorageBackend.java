@@ -0,0 +1,83 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.cloudera.cdh.test.utils.HDFSClient;
+
+/**
+ * The file system the fixtures are written to, selected by the {@value #PROPERTY} system property.
+ *
+ * The local backends only work if the readers run on the same host, i.e. with
+ * {@link LocalParquetClient} or a single node cluster.
+ */
+enum StorageBackend {
+  /**
+   * The home directory on the HDFS of the cluster.
+   */
+  HDFS {
+    @Override
+    FileSystem getFileSystem() throws Exception {
+      return new HDFSClient().getFileSystem();
+    }
+
+    @Override
+    Path getBaseDir(FileSystem fs) {
+      return fs.getHomeDirectory();
+    }
+  },
+  /**
+   * The temporary directory of the JVM on the local disk.
+   */
+  LOCAL {
+    @Override
+    Path getBaseDir(FileSystem fs) {
+      return fs.makeQualified(new Path(System.getProperty("java.io.tmpdir")));
+    }
+  },
+  /**
+   * A RAM backed tmpfs mounted at {@value #SHM_DIR} accessed as a local file system, so the files
+   * never touch the disk while the readers can still open them by path.
+   */
+  MEMORY {
+    @Override
+    Path getBaseDir(FileSystem fs) throws IOException {
+      File dir = new File(SHM_DIR);
+      if (!dir.isDirectory() || !dir.canWrite()) {
+        throw new IOException("In-memory storage requires a writable tmpfs at " + SHM_DIR);
+      }
+      return fs.makeQualified(new Path(dir.getPath()));
+    }
+  };
+
+  static final String PROPERTY = "columnindexfiltering.storage";
+
+  private static final String SHM_DIR = "/dev/shm";
+
+  /**
+   * Returns the backend of the {@value #PROPERTY} system property; the default is {@link #LOCAL}
+   * for the local engine and {@link #HDFS} otherwise.
+   */
+  static StorageBackend fromSystemProperties(boolean localEngine) {
+    String name = System.getProperty(PROPERTY);
+    if (name == null) {
+      return localEngine ? LOCAL : HDFS;
+    }
+    return valueOf(name.toUpperCase(Locale.ROOT));
+  }
+
+  FileSystem getFileSystem() throws Exception {
+    return FileSystem.getLocal(new Configuration());
+  }
+
+  /**
+   * The directory the working directories of the tables are created in.
+   */
+  abstract Path getBaseDir(FileSystem fs) throws IOException;
+}
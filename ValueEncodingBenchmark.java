@@ -0,0 +1,201 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.parquet.example.data.simple.NanoTime;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares writing distinct values through {@link ColumnHelper#valueToFileFormatValue(Object)},
+ * which allocates per value, with the primitive encoders of
+ * {@link ColumnHelper#createPrimitiveEncoder()}. Both variants hand the encoded values to a record
+ * consumer feeding a {@link Blackhole}. DECIMAL_IN_BINARY values are drawn from its reference values,
+ * as its primitive form is the reference index. Run {@link #main(String[])} to get the allocation
+ * rate as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ValueEncodingBenchmark {
+  private static final int VALUE_COUNT = 4096;
+
+  @Param({ "BOOLEAN", "INT32", "INT64", "INT96", "FLOAT", "DOUBLE", "DECIMAL_IN_INT32", "DECIMAL_IN_INT64",
+      "DECIMAL_IN_FIXED", "DECIMAL_IN_BINARY" })
+  public String column;
+
+  private ColumnHelper helper;
+  private Object[] values;
+  private long[] primitives;
+  private ColumnHelper.PrimitiveEncoder encoder;
+
+  @Setup(Level.Trial)
+  public void generateValues() {
+    helper = ColumnHelper.valueOf(column);
+    Random random = new Random(42);
+    values = new Object[VALUE_COUNT];
+    primitives = new long[VALUE_COUNT];
+    for (int i = 0; i < VALUE_COUNT; ++i) {
+      values[i] = randomValue(random);
+      primitives[i] = helper.valueToPrimitive(values[i]);
+    }
+    encoder = helper.createPrimitiveEncoder();
+  }
+
+  private Object randomValue(Random random) {
+    switch (helper) {
+    case BOOLEAN:
+      return random.nextBoolean();
+    case INT32:
+      return random.nextInt();
+    case INT64:
+      return random.nextLong();
+    case INT96:
+      // Between 1900 and 2100
+      return new DateTime(-2208988800000L + (long) (random.nextDouble() * 6311433600000L));
+    case DECIMAL_IN_INT32:
+      return BigDecimal.valueOf(random.nextInt(1_000_000_000), 2);
+    case DECIMAL_IN_INT64:
+      return BigDecimal.valueOf(random.nextLong() % 1_000_000_000_000_000_000L, 4);
+    case FLOAT:
+      return Float.intBitsToFloat(random.nextInt());
+    case DOUBLE:
+      return Double.longBitsToDouble(random.nextLong());
+    case DECIMAL_IN_FIXED:
+      return BigDecimal.valueOf(random.nextLong() % 1_000_000_000_000_000_000L, 6);
+    default:
+      // The primitive form is the index of a reference value
+      List<?> references = helper.getValues().values;
+      return references.get(random.nextInt(references.size()));
+    }
+  }
+
+  @Benchmark
+  public void fileFormatValues(Blackhole blackhole) {
+    RecordConsumer consumer = new BlackholeConsumer(blackhole);
+    for (Object value : values) {
+      Object converted = helper.valueToFileFormatValue(value);
+      if (converted instanceof NanoTime) {
+        consumer.addBinary(((NanoTime) converted).toBinary());
+      } else if (converted instanceof Binary) {
+        consumer.addBinary((Binary) converted);
+      } else if (converted instanceof Boolean) {
+        consumer.addBoolean((Boolean) converted);
+      } else if (converted instanceof Integer) {
+        consumer.addInteger((Integer) converted);
+      } else if (converted instanceof Float) {
+        consumer.addFloat((Float) converted);
+      } else if (converted instanceof Double) {
+        consumer.addDouble((Double) converted);
+      } else {
+        consumer.addLong((Long) converted);
+      }
+    }
+  }
+
+  @Benchmark
+  public void primitiveEncoder(Blackhole blackhole) {
+    RecordConsumer consumer = new BlackholeConsumer(blackhole);
+    for (long value : primitives) {
+      encoder.append(consumer, value);
+    }
+  }
+
+  /**
+   * Consumes the values so that the encoding cannot be eliminated.
+   */
+  private static class BlackholeConsumer extends RecordConsumer {
+    private final Blackhole blackhole;
+
+    BlackholeConsumer(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void startMessage() {
+    }
+
+    @Override
+    public void endMessage() {
+    }
+
+    @Override
+    public void startField(String field, int index) {
+    }
+
+    @Override
+    public void endField(String field, int index) {
+    }
+
+    @Override
+    public void startGroup() {
+    }
+
+    @Override
+    public void endGroup() {
+    }
+
+    @Override
+    public void addInteger(int value) {
+      blackhole.consume(value);
+    }
+
+    @Override
+    public void addLong(long value) {
+      blackhole.consume(value);
+    }
+
+    @Override
+    public void addBoolean(boolean value) {
+      blackhole.consume(value);
+    }
+
+    @Override
+    public void addBinary(Binary value) {
+      blackhole.consume(value);
+    }
+
+    @Override
+    public void addFloat(float value) {
+      blackhole.consume(value);
+    }
+
+    @Override
+    public void addDouble(double value) {
+      blackhole.consume(value);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder()
+        .include(ValueEncodingBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,223 @@
+// (c) Copyright 2019 Cloudera, Inc.
+package com.cloudera.cdh.tests.parquet.columnindexfiltering;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * The parquet-mr writer properties used for writing the fixtures.
+ *
+ * Instances are immutable; the {@code with*} methods return modified copies.
+ */
+final class WriterSettings {
+  static final String DICTIONARY_PROPERTY = "columnindexfiltering.dictionary";
+  static final String GEOMETRIES_PROPERTY = "columnindexfiltering.geometries";
+  static final String TRUNCATE_LENGTHS_PROPERTY = "columnindexfiltering.truncate.lengths";
+  static final int NO_PAGE_ROW_COUNT_LIMIT = Integer.MAX_VALUE;
+  // About two dictionary encoded values, so the pages of the test plan hold a few rows
+  static final int NESTED_LIST_PAGE_SIZE = 8;
+
+  private static final String PAGE_ROW_COUNT_LIMIT = "parquet.page.row.count.limit";
+  private static final String PAGE_SIZE = "parquet.page.size";
+  private static final String BLOCK_SIZE = "parquet.block.size";
+  private static final String ENABLE_DICTIONARY = "parquet.enable.dictionary";
+  private static final String COLUMN_INDEX_TRUNCATE_LENGTH = "parquet.columnindex.truncate.length";
+  private static final String MIN_ROW_COUNT_FOR_PAGE_SIZE_CHECK = "parquet.page.size.row.check.min";
+  private static final String MAX_ROW_COUNT_FOR_PAGE_SIZE_CHECK = "parquet.page.size.row.check.max";
+
+  private final int pageRowCountLimit;
+  private final Integer pageSize;
+  private final Long rowGroupSize;
+  private final Integer truncateLength;
+  private final Boolean dictionary;
+
+  private WriterSettings(int pageRowCountLimit, Integer pageSize, Long rowGroupSize, Integer truncateLength,
+      Boolean dictionary) {
+    this.pageRowCountLimit = pageRowCountLimit;
+    this.pageSize = pageSize;
+    this.rowGroupSize = rowGroupSize;
+    this.truncateLength = truncateLength;
+    this.dictionary = dictionary;
+  }
+
+  /**
+   * The settings of the test plan: 3 rows per page, everything else left at the defaults.
+   */
+  static WriterSettings defaults() {
+    return new WriterSettings(3, null, null, null, null);
+  }
+
+  /**
+   * The default settings modified by the system properties:
+   * <ul>
+   * <li>{@value #DICTIONARY_PROPERTY}: {@code true} or {@code false} for enabling or disabling
+   * dictionary encoding</li>
+   * </ul>
+   */
+  static WriterSettings fromSystemProperties() {
+    WriterSettings settings = defaults();
+    String dictionary = System.getProperty(DICTIONARY_PROPERTY);
+    if (dictionary != null) {
+      settings = settings.withDictionary(Boolean.parseBoolean(dictionary));
+    }
+    return settings;
+  }
+
+  /**
+   * Returns the settings of {@link #fromSystemProperties()} with each page and row group geometry
+   * listed in {@value #GEOMETRIES_PROPERTY} and each column index truncate length listed in
+   * {@value #TRUNCATE_LENGTHS_PROPERTY}.
+   *
+   * The geometries are separated by semicolons, each of them is
+   * {@code rowsPerPage[:pageBytes[:rowGroupBytes]]} where the omitted sizes are left at the defaults
+   * of parquet-mr, e.g. {@code 3;1000:8192;20000:1048576:8388608}. The truncate lengths are
+   * separated by commas. Without the properties the only settings are the ones of the test plan.
+   */
+  static List<WriterSettings> sweepFromSystemProperties() {
+    List<WriterSettings> result = new ArrayList<>();
+    String truncateLengths = System.getProperty(TRUNCATE_LENGTHS_PROPERTY);
+    for (WriterSettings geometry : geometriesFromSystemProperties()) {
+      if (truncateLengths == null || truncateLengths.trim().isEmpty()) {
+        result.add(geometry);
+        continue;
+      }
+      for (String length : truncateLengths.split(",")) {
+        result.add(geometry.withTruncateLength(Integer.parseInt(length.trim())));
+      }
+    }
+    return result;
+  }
+
+  private static List<WriterSettings> geometriesFromSystemProperties() {
+    WriterSettings base = fromSystemProperties();
+    String geometries = System.getProperty(GEOMETRIES_PROPERTY);
+    if (geometries == null || geometries.trim().isEmpty()) {
+      return Collections.singletonList(base);
+    }
+    List<WriterSettings> result = new ArrayList<>();
+    for (String geometry : geometries.split(";")) {
+      String[] parts = geometry.trim().split(":");
+      if (parts.length > 3) {
+        throw new IllegalArgumentException("Invalid geometry: " + geometry);
+      }
+      WriterSettings settings = base.withPageRowCountLimit(Integer.parseInt(parts[0].trim()));
+      if (parts.length > 1) {
+        settings = settings.withPageSize(Integer.parseInt(parts[1].trim()));
+      }
+      if (parts.length > 2) {
+        settings = settings.withRowGroupSize(Long.parseLong(parts[2].trim()));
+      }
+      result.add(settings);
+    }
+    return result;
+  }
+
+  public WriterSettings withPageRowCountLimit(int rows) {
+    return new WriterSettings(rows, pageSize, rowGroupSize, truncateLength, dictionary);
+  }
+
+  public WriterSettings withPageSize(int bytes) {
+    return new WriterSettings(pageRowCountLimit, bytes, rowGroupSize, truncateLength, dictionary);
+  }
+
+  public WriterSettings withRowGroupSize(long bytes) {
+    return new WriterSettings(pageRowCountLimit, pageSize, bytes, truncateLength, dictionary);
+  }
+
+  /**
+   * Sets the length the min/max values of the column indexes are truncated to.
+   */
+  public WriterSettings withTruncateLength(int length) {
+    return new WriterSettings(pageRowCountLimit, pageSize, rowGroupSize, length, dictionary);
+  }
+
+  public WriterSettings withDictionary(boolean enabled) {
+    return new WriterSettings(pageRowCountLimit, pageSize, rowGroupSize, truncateLength, enabled);
+  }
+
+  /**
+   * Returns the settings used for writing the columns with the nesting.
+   *
+   * The page row count limit flushes the pages of every column at the same row, so the repeated
+   * siblings of {@link Nesting#LIST} and {@link Nesting#MAP} would have the same page boundaries as
+   * the struct leaves. Their pages are limited by size only: the row count limit is dropped and the
+   * page size defaults to {@value #NESTED_LIST_PAGE_SIZE} bytes. As a sibling holds more values per
+   * row, its pages end on other rows than the ones of its struct leaf.
+   */
+  public WriterSettings forNesting(Nesting nesting) {
+    if (!nesting.hasSibling()) {
+      return this;
+    }
+    return new WriterSettings(NO_PAGE_ROW_COUNT_LIMIT, pageSize == null ? NESTED_LIST_PAGE_SIZE : pageSize,
+        rowGroupSize, truncateLength, dictionary);
+  }
+
+  public int getPageRowCountLimit() {
+    return pageRowCountLimit;
+  }
+
+  /**
+   * Sets the writer properties in the configuration.
+   */
+  public void applyTo(Configuration conf) {
+    conf.setInt(PAGE_ROW_COUNT_LIMIT, pageRowCountLimit);
+    if (pageRowCountLimit == NO_PAGE_ROW_COUNT_LIMIT) {
+      // The pages are only limited by size; the default checks would flush the small pages far too late
+      conf.setInt(MIN_ROW_COUNT_FOR_PAGE_SIZE_CHECK, 1);
+      conf.setInt(MAX_ROW_COUNT_FOR_PAGE_SIZE_CHECK, 1);
+    }
+    if (pageSize != null) {
+      conf.setInt(PAGE_SIZE, pageSize);
+    }
+    if (rowGroupSize != null) {
+      conf.setLong(BLOCK_SIZE, rowGroupSize);
+    }
+    if (truncateLength != null) {
+      conf.setInt(COLUMN_INDEX_TRUNCATE_LENGTH, truncateLength);
+    }
+    if (dictionary != null) {
+      conf.setBoolean(ENABLE_DICTIONARY, dictionary);
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof WriterSettings)) {
+      return false;
+    }
+    WriterSettings other = (WriterSettings) obj;
+    return pageRowCountLimit == other.pageRowCountLimit
+        && Objects.equals(pageSize, other.pageSize)
+        && Objects.equals(rowGroupSize, other.rowGroupSize)
+        && Objects.equals(truncateLength, other.truncateLength)
+        && Objects.equals(dictionary, other.dictionary);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(pageRowCountLimit, pageSize, rowGroupSize, truncateLength, dictionary);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("rows/page=")
+        .append(pageRowCountLimit == NO_PAGE_ROW_COUNT_LIMIT ? "unlimited" : String.valueOf(pageRowCountLimit));
+    if (pageSize != null) {
+      builder.append(", page bytes=").append(pageSize);
+    }
+    if (rowGroupSize != null) {
+      builder.append(", row group bytes=").append(rowGroupSize);
+    }
+    if (truncateLength != null) {
+      builder.append(", truncate length=").append(truncateLength);
+    }
+    if (dictionary != null) {
+      builder.append(", dictionary=").append(dictionary);
+    }
+    return builder.toString();
+  }
+}